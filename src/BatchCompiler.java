@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Headless compiler for many scripts at once: lex, parse, check and emit
+ * every script in parallel, then print a throughput summary.
+ * <p>
+ * Usage: java BatchCompiler [-o outDir] [-j threads] [-seed n] [-k] [-scene] [-cache dir] [-cache-mb n] file-or-directory...
+ * <p>
+ * With -k a syntax error does not stop a script: every error in it is listed
+ * and no program is generated for it. With -scene each script is written as a
+ * binary .scene file (see SceneFile) instead of a Java program. With -cache,
+ * a script compiled before with the same options is served from a
+ * CompileCache in dir, which is kept under n megabytes (default 512).
+ * <p>
+ * Scripts of STREAMING_THRESHOLD bytes or more are lexed straight from a
+ * memory-mapped file as the parser pulls tokens, so the text is never held in
+ * memory. They bypass the cache, whose key is a hash of the whole text.
+ * <p>
+ * Each task has its own Parser, SemanticAnalyzer and CoordinateAllocator, so
+ * scripts share no mutable state. Generated programs are written to outDir,
+ * one class per script, named after the script file.
+ */
+public class BatchCompiler {
+    static final long STREAMING_THRESHOLD = 64L << 20;
+
+    private final Path outputDirectory;
+    private final int parallelism;
+    private final long seed;
+    private boolean keepGoing;
+    private boolean writeScenes;
+    private CompileCache cache;
+    private long streamingThreshold = STREAMING_THRESHOLD;
+    private double wallSeconds;
+
+    public BatchCompiler(Path outputDirectory, int parallelism, long seed) {
+        this.outputDirectory = outputDirectory;
+        this.parallelism = parallelism;
+        this.seed = seed;
+    }
+
+    // Parse with error recovery, reporting all syntax errors of a script
+    public void setKeepGoing(boolean keepGoing) {
+        this.keepGoing = keepGoing;
+    }
+
+    // Write SceneFile binaries rather than Java sources
+    public void setWriteScenes(boolean writeScenes) {
+        this.writeScenes = writeScenes;
+    }
+
+    // Null compiles every script from scratch
+    public void setCache(CompileCache cache) {
+        this.cache = cache;
+    }
+
+    // Size in bytes from which a script is streamed from disk rather than read whole
+    public void setStreamingThreshold(long bytes) {
+        this.streamingThreshold = bytes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path outputDirectory = Path.of("out", "generated");
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long seed = CoordinateAllocator.DEFAULT_SEED;
+        boolean keepGoing = false;
+        boolean writeScenes = false;
+        Path cacheDirectory = null;
+        long cacheMegabytes = 512;
+        List<Path> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o" -> outputDirectory = Path.of(args[++i]);
+                case "-j" -> parallelism = Integer.parseInt(args[++i]);
+                case "-seed" -> seed = Long.parseLong(args[++i]);
+                case "-k" -> keepGoing = true;
+                case "-scene" -> writeScenes = true;
+                case "-cache" -> cacheDirectory = Path.of(args[++i]);
+                case "-cache-mb" -> cacheMegabytes = Long.parseLong(args[++i]);
+                default -> inputs.add(Path.of(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.out.println("Usage: java BatchCompiler [-o outDir] [-j threads] [-seed n] [-k] [-scene] [-cache dir] [-cache-mb n] file-or-directory...");
+            return;
+        }
+
+        BatchCompiler compiler = new BatchCompiler(outputDirectory, parallelism, seed);
+        compiler.setKeepGoing(keepGoing);
+        compiler.setWriteScenes(writeScenes);
+        if (cacheDirectory != null) {
+            compiler.setCache(new CompileCache(cacheDirectory, cacheMegabytes << 20));
+        }
+        List<ScriptResult> results = compiler.compile(collectScripts(inputs));
+        for (ScriptResult result : results) {
+            if (result.failure != null) {
+                System.out.println(result.script + ": " + result.failure);
+            }
+            for (Diagnostic error : result.diagnostics) {
+                System.out.println(result.script + ": " + error);
+            }
+        }
+        compiler.printSummary(results);
+    }
+
+    public List<ScriptResult> compile(List<Path> scripts) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+
+        // Class names are fixed up front so two scripts never write the same file
+        List<Callable<ScriptResult>> tasks = new ArrayList<>();
+        Set<String> classNames = new HashSet<>();
+        for (Path script : scripts) {
+            String className = className(script);
+            String unique = className;
+            for (int n = 2; !classNames.add(unique); n++) {
+                unique = className + "_" + n;
+            }
+            String outputClass = unique;
+            tasks.add(() -> compileScript(script, outputClass));
+        }
+
+        long start = System.nanoTime();
+        List<ScriptResult> results = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<ScriptResult> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        wallSeconds = (System.nanoTime() - start) / 1e9;
+        return results;
+    }
+
+    private ScriptResult compileScript(Path script, String className) {
+        ScriptResult result = new ScriptResult(script);
+        long start = System.nanoTime();
+        try {
+            Path output = outputDirectory.resolve(className + (writeScenes ? ".scene" : ".java"));
+            if (Files.size(script) >= streamingThreshold) {
+                compileStreamed(script, className, output, result);
+            } else {
+                String text = Files.readString(script, StandardCharsets.UTF_8);
+                result.bytes = text.length();
+                if (cache != null) {
+                    compileCached(text, className, output, result);
+                } else {
+                    compileText(text, className, output, result);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            result.failure = describe(e);
+        }
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    private void compileText(String text, String className, Path output, ScriptResult result) throws IOException {
+        TokenBuffer tokens = LexicalAnalyser.tokenize(text);
+        result.tokens = tokens.size();
+        compileTokens(tokens.stream(), className, output, result);
+    }
+
+    private void compileStreamed(Path script, String className, Path output, ScriptResult result) throws IOException {
+        try (ReaderTokenStream tokens = LexicalAnalyser.stream(script)) {
+            try {
+                compileTokens(tokens, className, output, result);
+            } finally {
+                result.bytes = tokens.getCharCount();
+                result.tokens = tokens.getLexemeCount();
+            }
+        }
+    }
+
+    private void compileTokens(TokenStream tokens, String className, Path output, ScriptResult result) throws IOException {
+        // Semantic checks run inside the parse, so the tree is never walked twice
+        Parser parser = new Parser(tokens, new CoordinateAllocator(seed));
+        parser.enableSemanticChecks();
+        if (keepGoing) parser.enableErrorRecovery();
+        ProgramNode program = parser.parse();
+        result.statements = program.getOperations().size();
+        result.geometries = parser.getGeometries().size();
+        result.diagnostics = parser.getDiagnostics();
+
+        // A script with syntax errors gets no output, as without -k
+        if (result.syntaxErrors() == 0 && writeScenes) {
+            SceneFile.write(parser.getScene(), output);
+        } else if (result.syntaxErrors() == 0) {
+            new CodeGenerator(className).generate(parser.getGeometries(), output);
+        }
+    }
+
+    // The output and counts of an earlier compile of the same text with the same options, or a new compile
+    private void compileCached(String text, String className, Path output, ScriptResult result) throws IOException {
+        String options = className + (writeScenes ? " scene" : " java") + (keepGoing ? " -k" : "");
+        String key = CompileCache.key(text, seed, options);
+        CompileCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            result.cached = true;
+            result.tokens = entry.tokens;
+            result.statements = entry.statements;
+            result.geometries = entry.geometries;
+            result.diagnostics = entry.diagnostics;
+            result.failure = entry.failure;
+            if (entry.failure == null && result.syntaxErrors() == 0) {
+                Files.write(output, entry.output);
+            }
+            return;
+        }
+
+        // Compile errors are the same every time, so they are cached too
+        try {
+            compileText(text, className, output, result);
+        } catch (RuntimeException e) {
+            result.failure = describe(e);
+        }
+        byte[] bytes = result.failure == null && result.syntaxErrors() == 0 ? Files.readAllBytes(output) : new byte[0];
+        cache.put(key, new CompileCache.Entry(result.tokens, result.statements, result.geometries,
+                result.diagnostics, result.failure, bytes));
+    }
+
+    private static String describe(Exception e) {
+        return e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    // Summary of the last compile call
+    public void printSummary(List<ScriptResult> results) {
+        int failed = 0;
+        int cached = 0;
+        long bytes = 0;
+        long tokens = 0;
+        long statements = 0;
+        long geometries = 0;
+        long syntaxErrors = 0;
+        long semanticErrors = 0;
+        double cpuSeconds = 0;
+        for (ScriptResult result : results) {
+            if (result.failure != null || result.syntaxErrors() > 0) failed++;
+            if (result.cached) cached++;
+            bytes += result.bytes;
+            tokens += result.tokens;
+            statements += result.statements;
+            geometries += result.geometries;
+            syntaxErrors += result.syntaxErrors();
+            semanticErrors += result.diagnostics.size() - result.syntaxErrors();
+            cpuSeconds += result.seconds;
+        }
+
+        System.out.printf("Compiled %d scripts (%d failed) with %d threads in %.3f s%n",
+                results.size(), failed, parallelism, wallSeconds);
+        System.out.printf("  %d chars, %d tokens, %d statements, %d geometries, %d syntax errors, %d semantic errors%n",
+                bytes, tokens, statements, geometries, syntaxErrors, semanticErrors);
+        System.out.printf("  %.1f scripts/s, %.0f statements/s, %.2f MB/s, parallel speedup %.1fx%n",
+                results.size() / wallSeconds, statements / wallSeconds, bytes / wallSeconds / 1e6,
+                wallSeconds > 0 ? cpuSeconds / wallSeconds : 0);
+        if (cache != null) {
+            System.out.printf("  %d of %d scripts served from the cache%n", cached, results.size());
+        }
+    }
+
+    static List<Path> collectScripts(List<Path> inputs) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    files.filter(Files::isRegularFile).sorted().forEach(scripts::add);
+                }
+            } else {
+                scripts.add(input);
+            }
+        }
+        return scripts;
+    }
+
+    // Script file name turned into a Java class name, e.g. "scene-1.txt" -> "scene_1"
+    static String className(Path script) {
+        String name = script.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (builder.length() == 0 || !Character.isJavaIdentifierStart(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        return builder.toString();
+    }
+
+    static final class ScriptResult {
+        final Path script;
+        long bytes;
+        int tokens;
+        int statements;
+        int geometries;
+        List<Diagnostic> diagnostics = List.of();
+        String failure;
+        boolean cached;
+        double seconds;
+
+        ScriptResult(Path script) {
+            this.script = script;
+        }
+
+        int syntaxErrors() {
+            int count = 0;
+            for (Diagnostic diagnostic : diagnostics) {
+                if (diagnostic.isSyntaxError()) count++;
+            }
+            return count;
+        }
+    }
+}
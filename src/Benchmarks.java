@@ -0,0 +1,314 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for every phase of the pipeline: lexing, parsing, semantic
+ * analysis, code generation and painting (headless, into a BufferedImage).
+ * <p>
+ * Run with: java Benchmarks [--sizes 1000,10000,100000] [--mix MIXED,POINTS,...] [--tokens] [--kernel]
+ * <p>
+ * Each case reports operations per second (one operation is one pass of a
+ * phase over the whole script) and the bytes allocated per operation and per
+ * second, taken from the per-thread allocation counter. --kernel instead
+ * measures the GeometryKernel batch operations on random segments.
+ */
+public class Benchmarks {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Relative weights of: point, segment, triangle, square, perpendicular
+    enum Mix {
+        MIXED(2, 1, 1, 1, 1),
+        POINTS(1, 0, 0, 0, 0),
+        SEGMENTS(1, 4, 0, 0, 0),
+        SHAPES(1, 0, 2, 2, 0),
+        CONSTRUCTIONS(1, 1, 0, 2, 2);
+
+        final int[] weights;
+
+        Mix(int... weights) {
+            this.weights = weights;
+        }
+
+        int pick(Random random) {
+            int total = 0;
+            for (int weight : weights) total += weight;
+            int r = random.nextInt(total);
+            for (int i = 0; i < weights.length; i++) {
+                r -= weights[i];
+                if (r < 0) return i;
+            }
+            return 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int[] sizes = {1_000, 10_000, 100_000};
+        Mix[] mixes = {Mix.MIXED};
+        boolean tokens = false;
+        boolean kernel = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes" -> {
+                    String[] parts = args[++i].split(",");
+                    sizes = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) sizes[j] = Integer.parseInt(parts[j].trim());
+                }
+                case "--mix" -> {
+                    String[] parts = args[++i].split(",");
+                    mixes = new Mix[parts.length];
+                    for (int j = 0; j < parts.length; j++) mixes[j] = Mix.valueOf(parts[j].trim());
+                }
+                case "--tokens" -> tokens = true;
+                case "--kernel" -> kernel = true;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (kernel) {
+            System.out.printf("%-16s %10s %14s %10s%n", "operation", "size", "shapes/s", "ns/shape");
+            for (int size : sizes) {
+                benchmarkKernel(size);
+            }
+            return;
+        }
+        if (!tokens) {
+            System.out.printf("%-14s %8s %-10s %12s %12s %14s %14s%n",
+                    "mix", "size", "phase", "ops/s", "ms/op", "alloc B/op", "alloc MB/s");
+        }
+        for (Mix mix : mixes) {
+            for (int size : sizes) {
+                String script = generateScript(size, 42, mix);
+                if (tokens) {
+                    compareTokenRepresentations(script, LexicalAnalyser.tokenize(script).size());
+                } else {
+                    benchmarkPhases(mix, size, script);
+                }
+            }
+        }
+    }
+
+    static void benchmarkPhases(Mix mix, int size, String script) {
+        TokenBuffer tokens = LexicalAnalyser.tokenize(script);
+        Parser parsed = new Parser(tokens.stream());
+        ProgramNode program = parsed.parse();
+        List<Geometry> geometries = parsed.getGeometries();
+        SceneStore scene = parsed.getScene();
+
+        report(mix, size, "lex", measure(() -> LexicalAnalyser.tokenize(script)));
+        report(mix, size, "parse", measure(() -> new Parser(tokens.stream()).parse()));
+        report(mix, size, "semantic", measure(() -> new SemanticAnalyzer(false).analyze(program)));
+        report(mix, size, "parse+check", measure(() -> {
+            Parser parser = new Parser(tokens.stream());
+            parser.enableSemanticChecks();
+            parser.parse();
+        }));
+        report(mix, size, "codegen", measure(() -> {
+            try {
+                new CodeGenerator().generate(geometries, Writer.nullWriter());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB);
+        Viewport view = new Viewport(DrawingPanel.GRID_SPACING, 400, 300);
+        report(mix, size, "draw-each", measure(() -> {
+            Graphics2D g = image.createGraphics();
+            for (Geometry geometry : geometries) {
+                geometry.draw(g, view);
+            }
+            g.dispose();
+        }));
+        SceneRenderer renderer = new SceneRenderer();
+        report(mix, size, "draw-batch", measure(() -> {
+            Graphics2D g = image.createGraphics();
+            renderer.draw(g, view, scene, null);
+            g.dispose();
+        }));
+
+        DrawingPanel panel = new DrawingPanel(geometries);
+        panel.setSize(800, 600);
+        report(mix, size, "paint", measure(() -> {
+            panel.sceneChanged();
+            paint(panel, image, null);
+        }));
+        // Cursor move over an unchanged scene: only the readout's dirty rectangle is repainted
+        Rectangle dirty = new Rectangle(400, 300, 160, 20);
+        report(mix, size, "repaint", measure(() -> paint(panel, image, dirty)));
+    }
+
+    // Every tenth segment has zero length and every tenth is vertical, as degenerate input costs the same
+    static void benchmarkKernel(int size) {
+        Random random = new Random(42);
+        double[] ax = new double[size], ay = new double[size], bx = new double[size], by = new double[size];
+        for (int i = 0; i < size; i++) {
+            ax[i] = random.nextInt(2001) - 1000;
+            ay[i] = random.nextInt(2001) - 1000;
+            bx[i] = i % 10 == 0 ? ax[i] : random.nextInt(2001) - 1000;
+            by[i] = i % 10 == 1 ? ay[i] + 5 : i % 10 == 0 ? ay[i] : random.nextInt(2001) - 1000;
+        }
+        double[] x1 = new double[size], y1 = new double[size], x2 = new double[size], y2 = new double[size];
+        int[] grid = new int[size];
+        double[] out = new double[4];
+
+        // Small batches are repeated so every measurement covers about a million shapes
+        int repeat = Math.max(1, 1_000_000 / size);
+        report("midpoints", size, repeat, measure(repeated(repeat, () -> GeometryKernel.midpoints(ax, ay, bx, by, x1, y1, size))));
+        report("squares", size, repeat, measure(repeated(repeat, () -> GeometryKernel.squares(ax, ay, bx, by, x1, y1, x2, y2, size))));
+        report("perpendiculars", size, repeat, measure(repeated(repeat, () -> GeometryKernel.perpendiculars(ax, ay, bx, by, 20, x1, y1, x2, y2, size))));
+        // The same work one call per shape, as the Parser does it
+        report("perpendicular", size, repeat, measure(repeated(repeat, () -> {
+            for (int i = 0; i < size; i++) {
+                GeometryKernel.perpendicular(ax[i], ay[i], bx[i], by[i], 20, out);
+                x1[i] = out[0];
+                y1[i] = out[1];
+                x2[i] = out[2];
+                y2[i] = out[3];
+            }
+        })));
+        report("projections", size, repeat, measure(repeated(repeat, () -> GeometryKernel.projections(x1, y1, ax, ay, bx, by, x2, y2, size))));
+        report("transform", size, repeat, measure(repeated(repeat, () -> GeometryKernel.transform(x1, y1, size, 0.6, -0.8, 3, 0.8, 0.6, -2))));
+        report("toGrid", size, repeat, measure(repeated(repeat, () -> GeometryKernel.toGrid(x1, grid, size))));
+    }
+
+    private static Runnable repeated(int times, Runnable task) {
+        return () -> {
+            for (int i = 0; i < times; i++) task.run();
+        };
+    }
+
+    private static void report(String operation, int size, int repeat, Measurement measurement) {
+        double shapes = (double) size * repeat;
+        System.out.printf("%-16s %10d %14.0f %10.2f%n", operation, size,
+                shapes / measurement.seconds, measurement.seconds * 1e9 / shapes);
+    }
+
+    private static void paint(DrawingPanel panel, BufferedImage image, Rectangle clip) {
+        Graphics2D g = image.createGraphics();
+        try {
+            if (clip != null) g.setClip(clip);
+            panel.paintComponent(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private static void report(Mix mix, int size, String phase, Measurement measurement) {
+        System.out.printf("%-14s %8d %-10s %12.2f %12.3f %14.0f %14.1f%n",
+                mix, size, phase,
+                1 / measurement.seconds,
+                measurement.seconds * 1e3,
+                (double) measurement.allocatedBytes,
+                measurement.allocatedBytes / measurement.seconds / 1e6);
+    }
+
+    // ArrayList<Lexeme> versus the struct-of-arrays TokenBuffer
+    static void compareTokenRepresentations(String script, int tokenCount) {
+        System.out.printf("%-22s %14s %14s %14s %14s%n", "representation", "retained B/tok", "lex tok/s", "parse tok/s", "alloc B/tok");
+
+        long retainedList = retainedBytes(() -> LexicalAnalyser.analyseScan(script));
+        long retainedBuffer = retainedBytes(() -> LexicalAnalyser.tokenize(script));
+
+        Measurement lexList = measure(() -> LexicalAnalyser.analyseScan(script));
+        Measurement lexBuffer = measure(() -> LexicalAnalyser.tokenize(script));
+
+        ArrayList<Lexeme> list = LexicalAnalyser.analyseScan(script);
+        TokenBuffer buffer = LexicalAnalyser.tokenize(script);
+        Measurement parseList = measure(() -> new Parser(list).parse());
+        Measurement parseBuffer = measure(() -> new Parser(buffer.stream()).parse());
+
+        report("ArrayList<Lexeme>", retainedList, lexList, parseList, tokenCount);
+        report("TokenBuffer", retainedBuffer, lexBuffer, parseBuffer, tokenCount);
+    }
+
+    private static void report(String name, long retained, Measurement lex, Measurement parse, int tokenCount) {
+        System.out.printf("%-22s %14.1f %14.0f %14.0f %14.1f%n", name,
+                retained / (double) tokenCount,
+                tokenCount / lex.seconds,
+                tokenCount / parse.seconds,
+                parse.allocatedBytes / (double) tokenCount);
+    }
+
+    static String generateScript(int statements, long seed) {
+        return generateScript(statements, seed, Mix.MIXED);
+    }
+
+    // Scripts shaped like the samples in Main; every new point gets explicit coordinates
+    static String generateScript(int statements, long seed, Mix mix) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder();
+        builder.append("поставити точку A (1,2) ; поставити точку B (4,6)");
+        for (int i = 0; i < statements - 2; i++) {
+            builder.append(" ; ");
+            int x = random.nextInt(41) - 20;
+            int y = random.nextInt(41) - 20;
+            switch (mix.pick(random)) {
+                case 0 -> builder.append("поставити точку P").append(i).append(" (").append(x).append(',').append(y).append(')');
+                case 1 -> builder.append("провести відрізок через дві точки Q").append(i).append(" (").append(x).append(',').append(y)
+                        .append(") та A");
+                case 2 -> builder.append("побудувати трикутник за точками A , B , T").append(i).append(" (").append(x).append(',').append(y).append(')');
+                case 3 -> builder.append("побудувати квадрат зі стороною AB");
+                default -> builder.append("провести пряму , перпендикулярну до відрізка AB");
+            }
+        }
+        return builder.toString();
+    }
+
+    static final class Measurement {
+        final double seconds;
+        final long allocatedBytes;
+
+        Measurement(double seconds, long allocatedBytes) {
+            this.seconds = seconds;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    // Best of several runs after warm-up; allocation is taken from the measured run
+    static Measurement measure(Runnable task) {
+        for (int i = 0; i < 3; i++) task.run();
+        double best = Double.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < 5; i++) {
+            long threadId = Thread.currentThread().getId();
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            task.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long bytes = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            if (seconds < best) {
+                best = seconds;
+                allocated = bytes;
+            }
+        }
+        return new Measurement(best, allocated);
+    }
+
+    interface Builder {
+        Object build();
+    }
+
+    static long retainedBytes(Builder builder) {
+        long before = usedHeap();
+        Object result = builder.build();
+        long after = usedHeap();
+        Reference.reachabilityFence(result);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
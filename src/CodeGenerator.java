@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Emits a standalone Java program that draws a finished scene.
+ * Runs as its own pass after parsing and writes each line straight to the
+ * sink, so emission time and memory are linear in the number of geometries.
+ */
+class CodeGenerator {
+    private final String className;
+
+    public CodeGenerator() {
+        this("Code");
+    }
+
+    public CodeGenerator(String className) {
+        this.className = className;
+    }
+
+    public void generate(List<Geometry> geometries, Writer out) throws IOException {
+        PhaseEvent event = CompilerMetrics.begin(CompilerMetrics.Phase.CODEGEN);
+        write(geometries, out);
+        CompilerMetrics.generated(event, geometries.size());
+    }
+
+    private void write(List<Geometry> geometries, Writer out) throws IOException {
+        out.write("import javax.swing.*;\n" +
+                "import java.util.ArrayList;\n" +
+                "public class " + className + " {\n" +
+                "    public static void main(String[] args) {" +
+                "       JFrame frame = new JFrame(\"Geometry Drawer\");\n" +
+                "       ArrayList<Geometry> geometries = new ArrayList<>();\n");
+
+        if (geometries instanceof SceneStore scene) {
+            // Straight from the columns, without a Geometry object per shape
+            for (int i = 0; i < scene.size(); i++) {
+                switch (scene.kind(i)) {
+                    case SceneStore.POINT -> emitPoint(scene.getName(i), scene.x1(i), scene.y1(i), out);
+                    case SceneStore.SEGMENT -> emitSegment(scene.x1(i), scene.y1(i), scene.x2(i), scene.y2(i), out);
+                    default -> emitGraph(scene.getGraph(i), out);
+                }
+            }
+        } else {
+            for (Geometry geometry : geometries) {
+                emit(geometry, out);
+            }
+        }
+
+        out.write("       DrawingPanel drawingPanel = new DrawingPanel(geometries);\n" +
+                "       frame.add(drawingPanel);\n" +
+                "       frame.setSize(800, 600);\n" +
+                "       frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);\n" +
+                "       frame.setLocationRelativeTo(null);\n" +
+                "       frame.setResizable(false);\n" +
+                "       frame.setVisible(true);\n" +
+                "    }\n" +
+                "}\n");
+    }
+
+    public void generate(List<Geometry> geometries, Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            generate(geometries, out);
+        }
+    }
+
+    public String generate(List<Geometry> geometries) {
+        StringWriter out = new StringWriter();
+        try {
+            generate(geometries, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private void emit(Geometry geometry, Writer out) throws IOException {
+        if (geometry instanceof PointGeometry point) {
+            emitPoint(point.getName(), point.getX(), point.getY(), out);
+        } else if (geometry instanceof SegmentGeometry segment) {
+            emitSegment(segment.getX1(), segment.getY1(), segment.getX2(), segment.getY2(), out);
+        } else if (geometry instanceof CompleteGraphGeometry graph) {
+            emitGraph(graph, out);
+        } else {
+            throw new IllegalArgumentException("Cannot generate code for " + geometry.getClass().getSimpleName());
+        }
+    }
+
+    private void emitPoint(String name, int x, int y, Writer out) throws IOException {
+        out.write("       geometries.add(new PointGeometry(\"");
+        out.write(name);
+        out.write("\",");
+        out.write(Integer.toString(x));
+        out.write(',');
+        out.write(Integer.toString(y));
+        out.write("));\n");
+    }
+
+    private void emitSegment(int x1, int y1, int x2, int y2, Writer out) throws IOException {
+        out.write("       geometries.add(new SegmentGeometry(");
+        out.write(Integer.toString(x1));
+        out.write(',');
+        out.write(Integer.toString(y1));
+        out.write(',');
+        out.write(Integer.toString(x2));
+        out.write(',');
+        out.write(Integer.toString(y2));
+        out.write("));\n");
+    }
+
+    // One line for the whole list, not one per pair
+    private void emitGraph(CompleteGraphGeometry graph, Writer out) throws IOException {
+        out.write("       geometries.add(new CompleteGraphGeometry(new int[]{");
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            if (i > 0) out.write(',');
+            out.write(Integer.toString(graph.getX(i)));
+        }
+        out.write("}, new int[]{");
+        for (int i = 0; i < graph.getVertexCount(); i++) {
+            if (i > 0) out.write(',');
+            out.write(Integer.toString(graph.getY(i)));
+        }
+        out.write("}));\n");
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compile results, addressed by a hash of everything that
+ * decides them: the script text, COMPILER_VERSION, the allocator seed and the
+ * output options. A hit costs the hash and one file read.
+ * <p>
+ * Entries are immutable files, written to a temporary name and moved into
+ * place, so readers never need a lock and never see half an entry. Only the
+ * size bookkeeping and eviction take a lock on a file in the directory, so
+ * several processes on one machine can share a cache. A hit refreshes the
+ * entry's modification time; when the cache grows past its limit, the entries
+ * used longest ago are deleted.
+ */
+class CompileCache {
+    // Raise whenever a change makes the compiler produce different output for the same script
+    static final int COMPILER_VERSION = 3;
+    private static final int MAGIC = 0x47434332; // "GCC2"
+    private static final String ENTRY_SUFFIX = ".entry";
+    // Eviction goes below the limit, so the next few puts do not evict again
+    private static final double EVICT_TO = 0.9;
+    // Temporary files left by a crashed writer are deleted once this old
+    private static final long STALE_MILLIS = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // The result of one compile; failure is set instead of output when it threw
+    static final class Entry {
+        final int tokens;
+        final int statements;
+        final int geometries;
+        final List<Diagnostic> diagnostics;
+        final String failure;
+        final byte[] output;
+
+        Entry(int tokens, int statements, int geometries, List<Diagnostic> diagnostics, String failure, byte[] output) {
+            this.tokens = tokens;
+            this.statements = statements;
+            this.geometries = geometries;
+            this.diagnostics = diagnostics;
+            this.failure = failure;
+            this.output = output;
+        }
+    }
+
+    public CompileCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Key for a script compiled with the given seed; options holds anything
+     * else that changes the output, such as the class name and format.
+     */
+    public static String key(String text, long seed, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((COMPILER_VERSION + "\n" + seed + "\n" + options + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The entry for the key, or null on a miss or an unreadable entry
+    public Entry get(String key) {
+        Path file = entryFile(key);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Entry entry = decode(bytes);
+        if (entry != null) {
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // Evicted meanwhile; the entry read is still good
+            }
+        }
+        return entry;
+    }
+
+    public void put(String key, Entry entry) throws IOException {
+        Path file = entryFile(key);
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), key, ".tmp");
+        try {
+            Files.write(temporary, encode(entry));
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        account(Files.size(file));
+    }
+
+    // Entries are spread over 256 subdirectories by the first two hex digits
+    private Path entryFile(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    // Adds to the shared size total and evicts when it passes the limit. Puts racing on
+    // one key may count it twice; every eviction recomputes the total from the files.
+    private synchronized void account(long added) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve("size.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer total = ByteBuffer.allocate(Long.BYTES);
+                // A scan already finds the entry just written
+                long size = channel.read(total, 0) == Long.BYTES ? total.getLong(0) + added : scanSize();
+                if (size > maxBytes) {
+                    size = evict();
+                }
+                total.clear();
+                total.putLong(0, size);
+                channel.write(total, 0);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private long scanSize() throws IOException {
+        long size = 0;
+        for (StoredEntry entry : storedEntries()) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    // Deletes the least recently used entries down to EVICT_TO of the limit; returns the size left
+    private long evict() throws IOException {
+        List<StoredEntry> entries = storedEntries();
+        long size = 0;
+        for (StoredEntry entry : entries) {
+            size += entry.size;
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        long target = (long) (maxBytes * EVICT_TO);
+        for (StoredEntry entry : entries) {
+            if (size <= target) break;
+            Files.deleteIfExists(entry.file);
+            size -= entry.size;
+        }
+        return size;
+    }
+
+    private static final class StoredEntry {
+        final Path file;
+        final long size;
+        final long lastUsed;
+
+        StoredEntry(Path file, long size, long lastUsed) {
+            this.file = file;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // Lists the entries on disk, deleting stale temporary files on the way
+    private List<StoredEntry> storedEntries() throws IOException {
+        List<StoredEntry> entries = new ArrayList<>();
+        long stale = System.currentTimeMillis() - STALE_MILLIS;
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory, 2)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                if (name.endsWith(ENTRY_SUFFIX)) {
+                    entries.add(new StoredEntry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+                } else if (name.endsWith(".tmp") && Files.getLastModifiedTime(file).toMillis() < stale) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (NoSuchFileException e) {
+                // Moved or evicted by another process while listing
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(entry.tokens);
+        out.writeInt(entry.statements);
+        out.writeInt(entry.geometries);
+        out.writeInt(entry.diagnostics.size());
+        for (Diagnostic diagnostic : entry.diagnostics) {
+            out.writeUTF(diagnostic.getKind().name());
+            out.writeInt(diagnostic.getStatement());
+            writeString(out, diagnostic.getSubject());
+            out.writeUTF(diagnostic.getExpected() != null ? diagnostic.getExpected().name() : "");
+        }
+        out.writeBoolean(entry.failure != null);
+        if (entry.failure != null) writeString(out, entry.failure);
+        out.writeInt(entry.output.length);
+        out.write(entry.output);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Length-prefixed UTF-8: writeUTF is limited to 64 KB, and messages can quote long tokens
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Entry decode(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC) return null;
+            int tokens = in.readInt();
+            int statements = in.readInt();
+            int geometries = in.readInt();
+            int count = in.readInt();
+            List<Diagnostic> diagnostics = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Diagnostic.Kind kind = Diagnostic.Kind.valueOf(in.readUTF());
+                int statement = in.readInt();
+                String subject = readString(in);
+                String expected = in.readUTF();
+                diagnostics.add(new Diagnostic(kind, statement, subject, expected.isEmpty() ? null : TokenKind.valueOf(expected)));
+            }
+            String failure = in.readBoolean() ? readString(in) : null;
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            return new Entry(tokens, statements, geometries, diagnostics, failure, output);
+        } catch (IOException | IllegalArgumentException | NegativeArraySizeException e) {
+            // Truncated or from an incompatible build
+            return null;
+        }
+    }
+}
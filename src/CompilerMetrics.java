@@ -0,0 +1,244 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counts for lexing, parsing, semantic analysis, code generation
+ * and painting.
+ * <p>
+ * Off unless the JVM is started with -Dcompiler.metrics=true. Then every phase
+ * becomes a JFR event, written while a recording has it enabled, and is added
+ * to the totals of the "geometry:type=CompilerMetrics" MXBean. Turned off, a
+ * probe is a test of a static final flag, which the JIT folds away.
+ * <p>
+ * A probe brackets the work:
+ * <pre>
+ *     PhaseEvent event = CompilerMetrics.begin(CompilerMetrics.Phase.LEX);
+ *     ...
+ *     CompilerMetrics.lexed(event, characters, tokens);
+ * </pre>
+ */
+class CompilerMetrics implements CompilerMetricsMXBean {
+    static final boolean ENABLED = Boolean.getBoolean("compiler.metrics");
+    static final String OBJECT_NAME = "geometry:type=CompilerMetrics";
+    private static final CompilerMetrics INSTANCE = ENABLED ? register() : null;
+
+    enum Phase {
+        LEX, PARSE, SEMANTIC, CODEGEN, PAINT;
+
+        final String label = name().toLowerCase();
+    }
+
+    private final LongAdder[] runs = adders(Phase.values().length);
+    private final LongAdder[] nanos = adders(Phase.values().length);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(Phase.values().length);
+    private final LongAdder characters = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder geometries = new LongAdder();
+    private final LongAdder diagnostics = new LongAdder();
+    private final LongAdder sceneRedraws = new LongAdder();
+    private volatile long lastFrameNanos;
+
+    private static CompilerMetrics register() {
+        CompilerMetrics metrics = new CompilerMetrics();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.out.println("Error registering " + OBJECT_NAME + ": " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    // The registered bean, or null when metrics are off
+    static CompilerMetrics get() {
+        return INSTANCE;
+    }
+
+    // Null when metrics are off; every end method accepts that
+    static PhaseEvent begin(Phase phase) {
+        if (!ENABLED) return null;
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase.label;
+        event.kind = phase;
+        event.started = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    static void lexed(PhaseEvent event, long characters, long tokens) {
+        if (event == null) return;
+        event.characters = characters;
+        event.tokens = tokens;
+        INSTANCE.characters.add(characters);
+        INSTANCE.tokens.add(tokens);
+        end(event);
+    }
+
+    static void parsed(PhaseEvent event, long statements, long geometries) {
+        if (event == null) return;
+        event.statements = statements;
+        event.geometries = geometries;
+        INSTANCE.statements.add(statements);
+        INSTANCE.geometries.add(geometries);
+        end(event);
+    }
+
+    static void analyzed(PhaseEvent event, long statements, long diagnostics) {
+        if (event == null) return;
+        event.statements = statements;
+        event.diagnostics = diagnostics;
+        INSTANCE.diagnostics.add(diagnostics);
+        end(event);
+    }
+
+    static void generated(PhaseEvent event, long geometries) {
+        if (event == null) return;
+        event.geometries = geometries;
+        end(event);
+    }
+
+    static PaintEvent beginPaint() {
+        if (!ENABLED) return null;
+        PaintEvent event = new PaintEvent();
+        event.started = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    static void painted(PaintEvent event, int width, int height, boolean sceneRedrawn) {
+        if (event == null) return;
+        event.end();
+        long elapsed = System.nanoTime() - event.started;
+        INSTANCE.record(Phase.PAINT, elapsed);
+        INSTANCE.lastFrameNanos = elapsed;
+        if (sceneRedrawn) INSTANCE.sceneRedraws.increment();
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.sceneRedrawn = sceneRedrawn;
+            event.commit();
+        }
+    }
+
+    private static void end(PhaseEvent event) {
+        event.end();
+        INSTANCE.record(event.kind, System.nanoTime() - event.started);
+        if (event.shouldCommit()) event.commit();
+    }
+
+    private void record(Phase phase, long elapsed) {
+        int i = phase.ordinal();
+        runs[i].increment();
+        nanos[i].add(elapsed);
+        maxNanos.accumulateAndGet(i, elapsed, Math::max);
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private long runs(Phase phase) {
+        return runs[phase.ordinal()].sum();
+    }
+
+    private double totalMillis(Phase phase) {
+        return nanos[phase.ordinal()].sum() / 1e6;
+    }
+
+    private double maxMillis(Phase phase) {
+        return maxNanos.get(phase.ordinal()) / 1e6;
+    }
+
+    @Override public long getLexRuns() { return runs(Phase.LEX); }
+    @Override public double getLexTotalMillis() { return totalMillis(Phase.LEX); }
+    @Override public double getLexMaxMillis() { return maxMillis(Phase.LEX); }
+    @Override public long getParseRuns() { return runs(Phase.PARSE); }
+    @Override public double getParseTotalMillis() { return totalMillis(Phase.PARSE); }
+    @Override public double getParseMaxMillis() { return maxMillis(Phase.PARSE); }
+    @Override public long getSemanticRuns() { return runs(Phase.SEMANTIC); }
+    @Override public double getSemanticTotalMillis() { return totalMillis(Phase.SEMANTIC); }
+    @Override public double getSemanticMaxMillis() { return maxMillis(Phase.SEMANTIC); }
+    @Override public long getCodegenRuns() { return runs(Phase.CODEGEN); }
+    @Override public double getCodegenTotalMillis() { return totalMillis(Phase.CODEGEN); }
+    @Override public double getCodegenMaxMillis() { return maxMillis(Phase.CODEGEN); }
+    @Override public long getFrames() { return runs(Phase.PAINT); }
+    @Override public double getPaintTotalMillis() { return totalMillis(Phase.PAINT); }
+    @Override public double getPaintMaxMillis() { return maxMillis(Phase.PAINT); }
+    @Override public double getLastFrameMillis() { return lastFrameNanos / 1e6; }
+    @Override public long getSceneRedraws() { return sceneRedraws.sum(); }
+    @Override public long getCharacters() { return characters.sum(); }
+    @Override public long getTokens() { return tokens.sum(); }
+    @Override public long getStatements() { return statements.sum(); }
+    @Override public long getGeometries() { return geometries.sum(); }
+    @Override public long getDiagnostics() { return diagnostics.sum(); }
+
+    @Override
+    public void reset() {
+        for (Phase phase : Phase.values()) {
+            runs[phase.ordinal()].reset();
+            nanos[phase.ordinal()].reset();
+            maxNanos.set(phase.ordinal(), 0);
+        }
+        characters.reset();
+        tokens.reset();
+        statements.reset();
+        geometries.reset();
+        diagnostics.reset();
+        sceneRedraws.reset();
+        lastFrameNanos = 0;
+    }
+}
+
+// Counts a phase does not produce stay 0
+@Name("geometry.CompilerPhase")
+@Label("Compiler Phase")
+@Category("Geometry Compiler")
+@Description("One run of lexing, parsing, semantic analysis or code generation")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+    @Label("Characters")
+    long characters;
+    @Label("Tokens")
+    long tokens;
+    @Label("Statements")
+    long statements;
+    @Label("Geometries")
+    long geometries;
+    @Label("Diagnostics")
+    long diagnostics;
+
+    // Not recorded; JFR skips transient fields
+    transient CompilerMetrics.Phase kind;
+    transient long started;
+}
+
+@Name("geometry.Paint")
+@Label("Paint")
+@Category("Geometry Compiler")
+@Description("One DrawingPanel.paintComponent call")
+@StackTrace(false)
+class PaintEvent extends Event {
+    @Label("Width")
+    int width;
+    @Label("Height")
+    int height;
+    // False when the frame only copied the cached layers
+    @Label("Scene Redrawn")
+    boolean sceneRedrawn;
+
+    transient long started;
+}
@@ -0,0 +1,36 @@
+/**
+ * Totals kept by CompilerMetrics since startup or the last reset. Public, as
+ * JMX requires of a management interface.
+ */
+public interface CompilerMetricsMXBean {
+    long getLexRuns();
+    double getLexTotalMillis();
+    double getLexMaxMillis();
+
+    long getParseRuns();
+    double getParseTotalMillis();
+    double getParseMaxMillis();
+
+    long getSemanticRuns();
+    double getSemanticTotalMillis();
+    double getSemanticMaxMillis();
+
+    long getCodegenRuns();
+    double getCodegenTotalMillis();
+    double getCodegenMaxMillis();
+
+    long getFrames();
+    double getPaintTotalMillis();
+    double getPaintMaxMillis();
+    double getLastFrameMillis();
+    // Frames that redrew the scene layer rather than copying it
+    long getSceneRedraws();
+
+    long getCharacters();
+    long getTokens();
+    long getStatements();
+    long getGeometries();
+    long getDiagnostics();
+
+    void reset();
+}
@@ -0,0 +1,546 @@
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which shapes of a scene were drawn through which points, so that moving a
+ * point redoes only the work that depends on it.
+ * <p>
+ * The nodes are points: one per point definition the Parser made, and one per
+ * point a construction derives from others, such as the far corners of a
+ * square or the midpoint and ends of a perpendicular. A derived point keeps
+ * its rule and its two inputs. Every shape a statement added to the SceneStore
+ * is kept with the points it goes through and its position in the store.
+ * <p>
+ * movePoints gives base points new coordinates, recomputes the derived points
+ * reachable from them, then moves every shape that depends on any of those in
+ * the store. The cost follows the size of that subgraph, not of the scene.
+ * Point ids are handed out in creation order and a derived point is created
+ * after its inputs, so ascending ids are a topological order. The derived
+ * points are recomputed level by level, with the GeometryKernel's batch forms.
+ * They are rounded to the grid as the Parser rounds them, so the moved shapes
+ * are those a new parse with the new coordinates would draw.
+ */
+class ConstructionGraph {
+    // How a point is computed from its inputs A and B
+    static final byte BASE = 0;
+    static final byte MIDPOINT = 1;
+    // The corners of the square on side AB next to A and next to B
+    static final byte SQUARE_C = 2;
+    static final byte SQUARE_D = 3;
+    // The ends of the perpendicular through the midpoint of AB
+    static final byte PERPENDICULAR_1 = 4;
+    static final byte PERPENDICULAR_2 = 5;
+    // One of each group of rules that come from the same GeometryKernel call
+    private static final byte[] BATCH_RULES = {MIDPOINT, SQUARE_C, PERPENDICULAR_1};
+
+    // What a shape is drawn through: a point's marker, a segment, or the points of "зʼєднати точки"
+    private static final byte MARKER = 0;
+    private static final byte SEGMENT = 1;
+    private static final byte CONNECTION = 2;
+    // A connection with nothing to store
+    private static final byte NONE = -1;
+
+    private final SceneStore scene;
+    private final Map<PointRef, Integer> definitions = new IdentityHashMap<>();
+    // The id of each name's latest definition
+    private final Map<String, Integer> latest = new HashMap<>();
+    // The base points of each name that have a marker, in definition order
+    private final Map<String, List<Integer>> marked = new HashMap<>();
+
+    private int points;
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private byte[] rules = new byte[16];
+    private int[] inputsA = new int[16];
+    private int[] inputsB = new int[16];
+    // Per point the points and shapes computed from it; a shape s is stored as ~s
+    private int[][] dependents = new int[16][];
+    private int[] dependentCounts = new int[16];
+    private int[] pointStamps = new int[16];
+    private boolean[] hasMarker = new boolean[16];
+
+    private int shapes;
+    private byte[] shapeKinds = new byte[16];
+    // A marker's point, a segment's two ends, or an offset and count in connected
+    private int[] shapesA = new int[16];
+    private int[] shapesB = new int[16];
+    // Position in the store, -1 for a connection of fewer than two distinct positions, which is not stored
+    private int[] sceneIndices = new int[16];
+    private int[] shapeStamps = new int[16];
+    private int[] connected = new int[16];
+    private int connectedCount;
+
+    private int stamp;
+    private int[] stack = new int[16];
+    // Per point, its level in the last computeDerived
+    private int[] pointLevels = new int[16];
+    // Inputs and outputs of one GeometryKernel batch call, and the point of each row
+    private int[] batchPoints = new int[0];
+    private double[] batchAx, batchAy, batchBx, batchBy;
+    private double[] batchX1, batchY1, batchX2, batchY2;
+    // Scratch for moveShapes: where a run's leading shape and another shape go
+    private final int[] targetLeader = new int[4];
+    private final int[] targetOther = new int[4];
+    private CompleteGraphGeometry targetGraph;
+
+    public ConstructionGraph(SceneStore scene) {
+        this.scene = scene;
+    }
+
+    public SceneStore getScene() {
+        return scene;
+    }
+
+    public int getPointCount() {
+        return points;
+    }
+
+    public int getShapeCount() {
+        return shapes;
+    }
+
+    // The id of a point definition, creating a base point the first time it is seen
+    public int point(PointRef point) {
+        Integer id = definitions.get(point);
+        if (id == null) {
+            id = addPoint(BASE, point.getX(), point.getY(), -1, -1);
+            definitions.put(point, id);
+            latest.put(point.getName(), id);
+        }
+        return id;
+    }
+
+    // A point computed from a and b by the rule, with the coordinates the Parser computed for it
+    public int derive(byte rule, int a, int b, int x, int y) {
+        int id = addPoint(rule, x, y, a, b);
+        addDependent(a, id);
+        addDependent(b, id);
+        return id;
+    }
+
+    public void marker(int point, int sceneIndex) {
+        int shape = addShape(MARKER, point, 0, sceneIndex);
+        addDependent(point, ~shape);
+        if (rules[point] == BASE && !hasMarker[point]) {
+            hasMarker[point] = true;
+            marked.computeIfAbsent(scene.getName(sceneIndex), k -> new ArrayList<>(1)).add(point);
+        }
+    }
+
+    public void segment(int a, int b, int sceneIndex) {
+        int shape = addShape(SEGMENT, a, b, sceneIndex);
+        addDependent(a, ~shape);
+        if (b != a) addDependent(b, ~shape);
+    }
+
+    // The points joined pairwise by one shape; sceneIndex is -1 when they share fewer than two positions
+    public void connection(int[] ids, int sceneIndex) {
+        if (connectedCount + ids.length > connected.length) {
+            connected = Arrays.copyOf(connected, Math.max(connected.length * 2, connectedCount + ids.length));
+        }
+        System.arraycopy(ids, 0, connected, connectedCount, ids.length);
+        int shape = addShape(CONNECTION, connectedCount, ids.length, sceneIndex);
+        connectedCount += ids.length;
+        Set<Integer> seen = new HashSet<>();
+        for (int id : ids) {
+            if (seen.add(id)) addDependent(id, ~shape);
+        }
+    }
+
+    public int getX(int point) {
+        return xs[point];
+    }
+
+    public int getY(int point) {
+        return ys[point];
+    }
+
+    public boolean isDerived(int point) {
+        return rules[point] != BASE;
+    }
+
+    // The base points drawn by the point marker at the given position of the store; derived points cannot be moved
+    public int[] pointsAt(int sceneIndex) {
+        List<Integer> ids = marked.get(scene.getName(sceneIndex));
+        if (ids == null) return new int[0];
+        int x = scene.x1(sceneIndex);
+        int y = scene.y1(sceneIndex);
+        int[] result = new int[ids.size()];
+        int count = 0;
+        for (int id : ids) {
+            if (xs[id] == x && ys[id] == y) result[count++] = id;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // Moves the latest definition of the name, as an edit of its coordinates would; null for an unknown name
+    public Rectangle2D movePoint(String name, int x, int y) {
+        Integer id = latest.get(name);
+        return id != null ? movePoints(new int[]{id}, x, y) : null;
+    }
+
+    /**
+     * Moves the base points to (x, y) and updates everything computed from
+     * them. Returns the world area whose drawing changed, covering the shapes
+     * before and after, or null when nothing moved.
+     */
+    public Rectangle2D movePoints(int[] ids, int x, int y) {
+        if (++stamp == 0) {
+            Arrays.fill(pointStamps, 0);
+            Arrays.fill(shapeStamps, 0);
+            stamp = 1;
+        }
+        int depth = 0;
+        int[] affected = new int[16];
+        int affectedCount = 0;
+        for (int id : ids) {
+            if (rules[id] != BASE) throw new IllegalArgumentException("Point " + id + " is derived and cannot be moved");
+            if (pointStamps[id] == stamp || xs[id] == x && ys[id] == y) continue;
+            xs[id] = x;
+            ys[id] = y;
+            pointStamps[id] = stamp;
+            if (affectedCount == affected.length) affected = Arrays.copyOf(affected, affectedCount * 2);
+            affected[affectedCount++] = id;
+            stack = push(stack, depth++, id);
+        }
+        int derivedStart = affectedCount;
+        while (depth > 0) {
+            int point = stack[--depth];
+            for (int k = 0; k < dependentCounts[point]; k++) {
+                int dependent = dependents[point][k];
+                if (dependent < 0 || pointStamps[dependent] == stamp) continue;
+                pointStamps[dependent] = stamp;
+                if (affectedCount == affected.length) affected = Arrays.copyOf(affected, affectedCount * 2);
+                affected[affectedCount++] = dependent;
+                stack = push(stack, depth++, dependent);
+            }
+        }
+        Arrays.sort(affected, derivedStart, affectedCount);
+        computeDerived(affected, derivedStart, affectedCount);
+
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (int k = 0; k < affectedCount; k++) {
+            int point = affected[k];
+            for (int j = 0; j < dependentCounts[point]; j++) {
+                int dependent = dependents[point][j];
+                if (dependent >= 0 || shapeStamps[~dependent] == stamp) continue;
+                shapeStamps[~dependent] = stamp;
+                if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                touched[touchedCount++] = ~dependent;
+            }
+        }
+        return moveShapes(touched, touchedCount);
+    }
+
+    /**
+     * Recomputes the derived points in affected[from, to), sorted by id. A
+     * point's level is one more than the highest level among its inputs, and
+     * a point that did not move is level 0. A level only reads lower ones, so
+     * each level is computed with one batch call of the GeometryKernel per
+     * rule.
+     */
+    private void computeDerived(int[] affected, int from, int to) {
+        int count = to - from;
+        if (count == 0) return;
+        int[] levelStarts = new int[count + 2];
+        for (int k = from; k < to; k++) {
+            int point = affected[k];
+            int level = Math.max(levelOf(inputsA[point]), levelOf(inputsB[point])) + 1;
+            pointLevels[point] = level;
+            levelStarts[level + 1]++;
+        }
+        for (int level = 1; level <= count; level++) {
+            levelStarts[level + 1] += levelStarts[level];
+        }
+        int[] byLevel = new int[count];
+        int[] next = Arrays.copyOf(levelStarts, count + 1);
+        for (int k = from; k < to; k++) {
+            byLevel[next[pointLevels[affected[k]]]++] = affected[k];
+        }
+        ensureBatchCapacity(count);
+        for (int level = 1; level <= count && levelStarts[level] < count; level++) {
+            for (byte rule : BATCH_RULES) {
+                computeBatch(byLevel, levelStarts[level], levelStarts[level + 1], rule);
+            }
+        }
+    }
+
+    private int levelOf(int point) {
+        return pointStamps[point] == stamp && rules[point] != BASE ? pointLevels[point] : 0;
+    }
+
+    // The points in points[from, to) computed by the same kernel call as rule
+    private void computeBatch(int[] points, int from, int to, byte rule) {
+        int n = 0;
+        for (int k = from; k < to; k++) {
+            int point = points[k];
+            if (batchRule(rules[point]) != rule) continue;
+            batchPoints[n] = point;
+            batchAx[n] = xs[inputsA[point]];
+            batchAy[n] = ys[inputsA[point]];
+            batchBx[n] = xs[inputsB[point]];
+            batchBy[n] = ys[inputsB[point]];
+            n++;
+        }
+        if (n == 0) return;
+        switch (rule) {
+            case MIDPOINT -> GeometryKernel.midpoints(batchAx, batchAy, batchBx, batchBy, batchX1, batchY1, n);
+            case SQUARE_C -> GeometryKernel.squares(batchAx, batchAy, batchBx, batchBy,
+                    batchX1, batchY1, batchX2, batchY2, n);
+            default -> GeometryKernel.perpendiculars(batchAx, batchAy, batchBx, batchBy, Parser.PERPENDICULAR_LENGTH,
+                    batchX1, batchY1, batchX2, batchY2, n);
+        }
+        for (int i = 0; i < n; i++) {
+            int point = batchPoints[i];
+            // D of a square and the second end of a perpendicular are the call's second output
+            boolean second = rules[point] == SQUARE_D || rules[point] == PERPENDICULAR_2;
+            xs[point] = GeometryKernel.toGrid(second ? batchX2[i] : batchX1[i]);
+            ys[point] = GeometryKernel.toGrid(second ? batchY2[i] : batchY1[i]);
+        }
+    }
+
+    private static byte batchRule(byte rule) {
+        return switch (rule) {
+            case SQUARE_C, SQUARE_D -> SQUARE_C;
+            case PERPENDICULAR_1, PERPENDICULAR_2 -> PERPENDICULAR_1;
+            default -> rule;
+        };
+    }
+
+    private void ensureBatchCapacity(int count) {
+        if (batchPoints.length >= count) return;
+        int capacity = Math.max(count, batchPoints.length * 2);
+        batchPoints = new int[capacity];
+        batchAx = new double[capacity];
+        batchAy = new double[capacity];
+        batchBx = new double[capacity];
+        batchBy = new double[capacity];
+        batchX1 = new double[capacity];
+        batchY1 = new double[capacity];
+        batchX2 = new double[capacity];
+        batchY2 = new double[capacity];
+    }
+
+    /**
+     * Moves the shapes in the store and returns their bounds before and after.
+     * Shapes sharing a place in the store that land on the same coordinates
+     * move together: moved one reference at a time, a shared shape would
+     * leave a copy behind on every drag step.
+     */
+    private Rectangle2D moveShapes(int[] touched, int count) {
+        long[] order = new long[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = ((long) sceneIndices[touched[k]] << 32) | touched[k];
+        }
+        Arrays.sort(order);
+        int[] group = new int[count];
+        Rectangle2D changed = null;
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            while (end < count && (int) (order[end] >> 32) == (int) (order[start] >> 32)) end++;
+            // Read again: taking a connection out of the store may have moved this run's shape
+            int index = sceneIndices[(int) order[start]];
+            if (index >= 0) changed = union(changed, bounds(index));
+            // The first shape of the run leads; the others join it when they land on the same place
+            int leader = (int) order[start];
+            byte kind = target(leader, targetLeader);
+            CompleteGraphGeometry graph = targetGraph;
+            int members = 0;
+            group[members++] = leader;
+            for (int k = start + 1; k < end && index >= 0; k++) {
+                int shape = (int) order[k];
+                if (target(shape, targetOther) == kind && Arrays.equals(targetLeader, targetOther)
+                        && (kind != SceneStore.GRAPH || graph.equals(targetGraph))) {
+                    group[members++] = shape;
+                }
+            }
+            int moved = move(index, members, kind, targetLeader, graph);
+            for (int k = 0; k < members; k++) {
+                sceneIndices[group[k]] = moved;
+            }
+            if (moved >= 0) changed = union(changed, bounds(moved));
+            for (int k = start + 1; k < end; k++) {
+                int shape = (int) order[k];
+                if (sceneIndices[shape] != index) continue;
+                kind = target(shape, targetOther);
+                moved = move(index, 1, kind, targetOther, targetGraph);
+                sceneIndices[shape] = moved;
+                if (moved >= 0) changed = union(changed, bounds(moved));
+            }
+            start = end;
+        }
+        return changed;
+    }
+
+    /**
+     * Where the shape goes now: its store kind, with its coordinates in
+     * coordinates or, for a complete graph, the graph in targetGraph. NONE for
+     * a connection that joins fewer than two distinct positions, which the
+     * Parser does not store either.
+     */
+    private byte target(int shape, int[] coordinates) {
+        int a = shapesA[shape];
+        int b = shapesB[shape];
+        switch (shapeKinds[shape]) {
+            case MARKER -> {
+                coordinates[0] = xs[a];
+                coordinates[1] = ys[a];
+                coordinates[2] = 0;
+                coordinates[3] = 0;
+                return SceneStore.POINT;
+            }
+            case SEGMENT -> {
+                coordinates[0] = xs[a];
+                coordinates[1] = ys[a];
+                coordinates[2] = xs[b];
+                coordinates[3] = ys[b];
+                return SceneStore.SEGMENT;
+            }
+            default -> {
+                return targetConnection(sceneIndices[shape], a, b, coordinates);
+            }
+        }
+    }
+
+    // Each position is joined once, as the Parser does: two make a segment, more a complete graph
+    private byte targetConnection(int index, int offset, int count, int[] coordinates) {
+        int[] vertexXs = new int[count];
+        int[] vertexYs = new int[count];
+        Set<Long> positions = new HashSet<>();
+        int vertices = 0;
+        for (int k = offset; k < offset + count; k++) {
+            int point = connected[k];
+            if (positions.add(((long) xs[point] << 32) | (ys[point] & 0xffffffffL))) {
+                vertexXs[vertices] = xs[point];
+                vertexYs[vertices] = ys[point];
+                vertices++;
+            }
+        }
+        Arrays.fill(coordinates, 0);
+        if (vertices == 2) {
+            coordinates[0] = vertexXs[0];
+            coordinates[1] = vertexYs[0];
+            coordinates[2] = vertexXs[1];
+            coordinates[3] = vertexYs[1];
+            return SceneStore.SEGMENT;
+        }
+        if (vertices < 2) return NONE;
+        targetGraph = new CompleteGraphGeometry(Arrays.copyOf(vertexXs, vertices), Arrays.copyOf(vertexYs, vertices));
+        return SceneStore.GRAPH;
+    }
+
+    // Moves references to the shape at index, or adds the shape when index is -1; returns where they are now
+    private int move(int index, int references, byte kind, int[] coordinates, CompleteGraphGeometry graph) {
+        if (kind == NONE) {
+            if (index >= 0) {
+                int last = scene.release(index, references);
+                if (last >= 0) relocated(last, index);
+            }
+            return -1;
+        }
+        if (index < 0) {
+            return kind == SceneStore.SEGMENT
+                    ? scene.addSegment(coordinates[0], coordinates[1], coordinates[2], coordinates[3])
+                    : scene.addGraph(graph);
+        }
+        return switch (kind) {
+            case SceneStore.POINT -> scene.movePoint(index, references, coordinates[0], coordinates[1]);
+            case SceneStore.SEGMENT -> scene.moveSegment(index, references,
+                    coordinates[0], coordinates[1], coordinates[2], coordinates[3]);
+            default -> scene.moveGraph(index, references, graph);
+        };
+    }
+
+    // The store moved its last shape into a freed position; a scan is fine for something this rare
+    private void relocated(int from, int to) {
+        for (int shape = 0; shape < shapes; shape++) {
+            if (sceneIndices[shape] == from) sceneIndices[shape] = to;
+        }
+    }
+
+    private Rectangle2D bounds(int index) {
+        return switch (scene.kind(index)) {
+            case SceneStore.POINT -> new Rectangle2D.Double(scene.x1(index), scene.y1(index), 0, 0);
+            case SceneStore.SEGMENT -> new Rectangle2D.Double(
+                    Math.min(scene.x1(index), scene.x2(index)), Math.min(scene.y1(index), scene.y2(index)),
+                    Math.abs((double) scene.x2(index) - scene.x1(index)), Math.abs((double) scene.y2(index) - scene.y1(index)));
+            default -> {
+                // A copy, as union() grows the rectangle it is given
+                Rectangle2D b = scene.getGraph(index).getBounds();
+                yield new Rectangle2D.Double(b.getX(), b.getY(), b.getWidth(), b.getHeight());
+            }
+        };
+    }
+
+    private static Rectangle2D union(Rectangle2D area, Rectangle2D other) {
+        if (area == null) return other;
+        if (other != null) area.add(other);
+        return area;
+    }
+
+    private int addPoint(byte rule, int x, int y, int a, int b) {
+        if (points == xs.length) {
+            int capacity = points * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            rules = Arrays.copyOf(rules, capacity);
+            inputsA = Arrays.copyOf(inputsA, capacity);
+            inputsB = Arrays.copyOf(inputsB, capacity);
+            dependents = Arrays.copyOf(dependents, capacity);
+            dependentCounts = Arrays.copyOf(dependentCounts, capacity);
+            pointStamps = Arrays.copyOf(pointStamps, capacity);
+            pointLevels = Arrays.copyOf(pointLevels, capacity);
+            hasMarker = Arrays.copyOf(hasMarker, capacity);
+        }
+        xs[points] = x;
+        ys[points] = y;
+        rules[points] = rule;
+        inputsA[points] = a;
+        inputsB[points] = b;
+        return points++;
+    }
+
+    private int addShape(byte kind, int a, int b, int sceneIndex) {
+        if (shapes == shapeKinds.length) {
+            int capacity = shapes * 2;
+            shapeKinds = Arrays.copyOf(shapeKinds, capacity);
+            shapesA = Arrays.copyOf(shapesA, capacity);
+            shapesB = Arrays.copyOf(shapesB, capacity);
+            sceneIndices = Arrays.copyOf(sceneIndices, capacity);
+            shapeStamps = Arrays.copyOf(shapeStamps, capacity);
+        }
+        shapeKinds[shapes] = kind;
+        shapesA[shapes] = a;
+        shapesB[shapes] = b;
+        sceneIndices[shapes] = sceneIndex;
+        return shapes++;
+    }
+
+    private void addDependent(int point, int dependent) {
+        int[] list = dependents[point];
+        int count = dependentCounts[point];
+        if (list == null) {
+            list = new int[2];
+        } else if (count == list.length) {
+            list = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = dependent;
+        dependents[point] = list;
+        dependentCounts[point] = count + 1;
+    }
+
+    private static int[] push(int[] stack, int depth, int value) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth] = value;
+        return stack;
+    }
+}
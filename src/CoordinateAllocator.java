@@ -0,0 +1,116 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hands out free grid cells for points declared without coordinates.
+ * <p>
+ * Cells come from the 4x6 grid the parser has always used, in a seeded random
+ * order. When that is full the region doubles in both directions and the new
+ * cells are handed out in the same way. Occupied cells are kept in a hash map
+ * of packed coordinates, and the cursor never goes back, so each allocation is
+ * amortized O(1) and never loops forever.
+ * <p>
+ * A cell may be occupied several times over, by allocate() and by points given
+ * at its coordinates, and each of those is given back with its own release().
+ * A cell is free again only when the last one is released. Freed cells of the
+ * region are handed out again before any new one, so a caller that releases
+ * what it no longer uses keeps the region from growing.
+ */
+class CoordinateAllocator {
+    public static final long DEFAULT_SEED = 0;
+
+    private static final int BASE_WIDTH = 4;
+    private static final int BASE_HEIGHT = 6;
+
+    private final Random random;
+    // Packed cell to the number of times it is occupied
+    private final Map<Long, Integer> occupied = new HashMap<>();
+
+    // Cells of the current region not yet handed out; [0, remaining) is still unvisited
+    private long[] candidates = new long[0];
+    private int remaining;
+    private int width;
+    private int height;
+    // Freed cells of the region, taken from the end
+    private long[] released = new long[0];
+    private int releasedCount;
+
+    public CoordinateAllocator() {
+        this(DEFAULT_SEED);
+    }
+
+    public CoordinateAllocator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    // Occupies the cell once more; give it back with release()
+    public void markOccupied(int x, int y) {
+        occupied.merge(pack(x, y), 1, Integer::sum);
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return occupied.containsKey(pack(x, y));
+    }
+
+    // Gives back one occupation of a cell from allocate() or markOccupied()
+    public void release(int x, int y) {
+        long cell = pack(x, y);
+        Integer count = occupied.get(cell);
+        if (count == null) return;
+        if (count > 1) {
+            occupied.put(cell, count - 1);
+            return;
+        }
+        occupied.remove(cell);
+        // Cells outside the region were never handed out, and must not be
+        if (x < 0 || x >= width || y < 0 || y >= height) return;
+        if (releasedCount == released.length) {
+            released = Arrays.copyOf(released, Math.max(8, releasedCount * 2));
+        }
+        released[releasedCount++] = cell;
+    }
+
+    // A free cell, occupied once
+    public int[] allocate() {
+        while (releasedCount > 0) {
+            long cell = released[--releasedCount];
+            if (occupied.putIfAbsent(cell, 1) == null) {
+                return new int[]{(int) (cell >> 32), (int) cell};
+            }
+        }
+        while (true) {
+            if (remaining == 0) {
+                grow();
+            }
+            // Incremental Fisher-Yates: pick one of the unvisited cells and swap it out
+            int pick = random.nextInt(remaining);
+            long cell = candidates[pick];
+            candidates[pick] = candidates[--remaining];
+            if (occupied.putIfAbsent(cell, 1) == null) {
+                return new int[]{(int) (cell >> 32), (int) cell};
+            }
+        }
+    }
+
+    private void grow() {
+        int newWidth = width == 0 ? BASE_WIDTH : width * 2;
+        int newHeight = height == 0 ? BASE_HEIGHT : height * 2;
+        candidates = new long[newWidth * newHeight - width * height];
+        remaining = 0;
+        for (int x = 0; x < newWidth; x++) {
+            for (int y = 0; y < newHeight; y++) {
+                if (x >= width || y >= height) {
+                    candidates[remaining++] = pack(x, y);
+                }
+            }
+        }
+        width = newWidth;
+        height = newHeight;
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
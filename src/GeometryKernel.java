@@ -0,0 +1,168 @@
+/**
+ * The arithmetic behind constructions, in double precision: midpoints, the
+ * square on a side, perpendiculars, projections onto a line and affine
+ * transforms.
+ * <p>
+ * Each operation has a scalar form, used by the Parser one construction at a
+ * time, and a batch form over parallel coordinate arrays. The batch loops are
+ * straight-line code on primitive arrays, with Math.max instead of a branch
+ * for degenerate input, so HotSpot's C2 compiles them to SIMD instructions.
+ * Output arrays must not be any of the input arrays, except where a method
+ * works in place.
+ * <p>
+ * Degenerate input gives finite results: the perpendicular of a zero-length
+ * segment is its midpoint, and a point projects onto such a segment at its
+ * start. Vertical and horizontal segments are not special cases, as every
+ * direction is a vector rather than a slope.
+ */
+final class GeometryKernel {
+    // Squared lengths are clamped to this, so a zero-length vector scales to zero instead of NaN
+    private static final double MIN_LENGTH_SQUARED = Double.MIN_NORMAL;
+
+    private GeometryKernel() {
+    }
+
+    public static double midpoint(double a, double b) {
+        return (a + b) * 0.5;
+    }
+
+    /**
+     * Factor that scales the vector (dx, dy) to the given length. For a
+     * zero-length vector it is large but finite, so the scaled vector is zero
+     * rather than NaN.
+     */
+    public static double scaleTo(double dx, double dy, double length) {
+        return length / Math.sqrt(Math.max(dx * dx + dy * dy, MIN_LENGTH_SQUARED));
+    }
+
+    /**
+     * Position of the foot of the perpendicular from P on line AB, as a
+     * multiple of AB from A: 0 at A, 1 at B. 0 when A and B coincide.
+     */
+    public static double projectionParameter(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        return ((px - ax) * dx + (py - ay) * dy) / Math.max(dx * dx + dy * dy, MIN_LENGTH_SQUARED);
+    }
+
+    // Nearest grid coordinate, halves rounded up; out-of-range values saturate and NaN becomes 0
+    public static int toGrid(double value) {
+        return (int) Math.floor(value + 0.5);
+    }
+
+    // Stores C and D of squares() for one side as out[0..3] = cx, cy, dx, dy
+    public static void square(double ax, double ay, double bx, double by, double[] out) {
+        double sideX = bx - ax;
+        double sideY = by - ay;
+        out[0] = ax - sideY;
+        out[1] = ay + sideX;
+        out[2] = bx - sideY;
+        out[3] = by + sideX;
+    }
+
+    // Stores C1 and C2 of perpendiculars() for one segment as out[0..3] = c1x, c1y, c2x, c2y
+    public static void perpendicular(double ax, double ay, double bx, double by, double length, double[] out) {
+        double sideX = bx - ax;
+        double sideY = by - ay;
+        double scale = scaleTo(sideX, sideY, length);
+        double midX = midpoint(ax, bx);
+        double midY = midpoint(ay, by);
+        out[0] = midX - sideY * scale;
+        out[1] = midY + sideX * scale;
+        out[2] = midX + sideY * scale;
+        out[3] = midY - sideX * scale;
+    }
+
+    public static void midpoints(double[] ax, double[] ay, double[] bx, double[] by,
+                                 double[] mx, double[] my, int count) {
+        for (int i = 0; i < count; i++) {
+            mx[i] = (ax[i] + bx[i]) * 0.5;
+            my[i] = (ay[i] + by[i]) * 0.5;
+        }
+    }
+
+    /**
+     * The other two corners of the square on side AB: C next to A and D next
+     * to B, on the left of AB (AB turned a quarter counter-clockwise, y up).
+     */
+    public static void squares(double[] ax, double[] ay, double[] bx, double[] by,
+                               double[] cx, double[] cy, double[] dx, double[] dy, int count) {
+        for (int i = 0; i < count; i++) {
+            double sideX = bx[i] - ax[i];
+            double sideY = by[i] - ay[i];
+            cx[i] = ax[i] - sideY;
+            cy[i] = ay[i] + sideX;
+            dx[i] = bx[i] - sideY;
+            dy[i] = by[i] + sideX;
+        }
+    }
+
+    /**
+     * Ends of the perpendicular through the midpoint of AB reaching the given
+     * length to each side: C1 on the left of AB, C2 on the right.
+     */
+    public static void perpendiculars(double[] ax, double[] ay, double[] bx, double[] by, double length,
+                                      double[] c1x, double[] c1y, double[] c2x, double[] c2y, int count) {
+        // Two loops: as one, the body is past C2's unroll limit and would stay scalar.
+        // The first leaves the normal to the right of AB in C2.
+        for (int i = 0; i < count; i++) {
+            double sideX = bx[i] - ax[i];
+            double sideY = by[i] - ay[i];
+            double scale = length / Math.sqrt(Math.max(sideX * sideX + sideY * sideY, MIN_LENGTH_SQUARED));
+            c2x[i] = sideY * scale;
+            c2y[i] = -sideX * scale;
+        }
+        for (int i = 0; i < count; i++) {
+            double midX = (ax[i] + bx[i]) * 0.5;
+            double midY = (ay[i] + by[i]) * 0.5;
+            double normalX = c2x[i];
+            double normalY = c2y[i];
+            c1x[i] = midX - normalX;
+            c1y[i] = midY - normalY;
+            c2x[i] = midX + normalX;
+            c2y[i] = midY + normalY;
+        }
+    }
+
+    // Foot of the perpendicular from each P on line AB
+    public static void projections(double[] px, double[] py, double[] ax, double[] ay, double[] bx, double[] by,
+                                   double[] fx, double[] fy, int count) {
+        for (int i = 0; i < count; i++) {
+            double sideX = bx[i] - ax[i];
+            double sideY = by[i] - ay[i];
+            double t = ((px[i] - ax[i]) * sideX + (py[i] - ay[i]) * sideY)
+                    / Math.max(sideX * sideX + sideY * sideY, MIN_LENGTH_SQUARED);
+            fx[i] = ax[i] + t * sideX;
+            fy[i] = ay[i] + t * sideY;
+        }
+    }
+
+    /**
+     * Applies x' = m00 x + m01 y + m02, y' = m10 x + m11 y + m12 to the points
+     * in place.
+     */
+    public static void transform(double[] xs, double[] ys, int count,
+                                 double m00, double m01, double m02, double m10, double m11, double m12) {
+        for (int i = 0; i < count; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            xs[i] = m00 * x + m01 * y + m02;
+            ys[i] = m10 * x + m11 * y + m12;
+        }
+    }
+
+    // Rotates the points in place by angle radians counter-clockwise about (centerX, centerY)
+    public static void rotate(double[] xs, double[] ys, int count, double angle, double centerX, double centerY) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        transform(xs, ys, count,
+                cos, -sin, centerX - cos * centerX + sin * centerY,
+                sin, cos, centerY - sin * centerX - cos * centerY);
+    }
+
+    public static void toGrid(double[] values, int[] grid, int count) {
+        for (int i = 0; i < count; i++) {
+            grid[i] = (int) Math.floor(values[i] + 0.5);
+        }
+    }
+}
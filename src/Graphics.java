@@ -1,88 +1,399 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseMotionAdapter;
+import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Ellipse2D;
-import java.util.ArrayList;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Draws the scene in three layers: the grid and the geometries are rendered
+ * once into off-screen images and only copied on repaint; the cursor readout
+ * is drawn on top, and moving the mouse repaints just the rectangles around
+ * its old and new positions.
+ * <p>
+ * Geometries are in world (grid) coordinates and pass through one Viewport
+ * when drawn. The wheel zooms around the cursor and dragging pans. When the
+ * view holds too many shapes to draw one by one, the scene is shown as a
+ * density map built from the spatial index cells instead.
+ * <p>
+ * Given the scene's ConstructionGraph, dragging a point marker moves the point
+ * instead. Only what depends on it is recomputed, and only the part of the
+ * scene layer those shapes covered before and after is redrawn.
+ */
 class DrawingPanel extends JPanel {
-    private final ArrayList<Geometry> geometries;
+    private final List<Geometry> geometries;
     public static final int GRID_SPACING = 40;
-    private static final Color GRID_COLOR = new Color(220, 220, 220);
+    static final Color GRID_COLOR = new Color(220, 220, 220);
+    // Pixels around the view searched for points whose markers or labels reach into it
+    static final int LABEL_MARGIN = 100;
+    private static final int MIN_GRID_PIXELS = 25;
+    private static final Font AXIS_FONT = new Font("Arial", Font.PLAIN, 10);
+    private static final Font CURSOR_FONT = new Font("Arial", Font.BOLD, 12);
+    private static final int HOVER_RADIUS = 8;
+    private static final double ZOOM_STEP = 1.1;
+    // Index entries in view above which the density map is drawn instead of the shapes
+    private static final int LOD_THRESHOLD = 50_000;
+    private static final int DENSITY_CELL = 4;
+    private static final Color[] DENSITY_COLORS = densityColors();
     private int mouseX = -1;
     private int mouseY = -1;
+    private int dragX;
+    private int dragY;
+    private ConstructionGraph constructions;
+    // Base points moved by the current drag, or null while the drag pans
+    private int[] draggedPoints;
+    private Viewport view;
+    // The geometries as a store; the list itself when it is one
+    private SceneStore scene;
+    private int sceneSourceSize;
+    private final SceneRenderer renderer = new SceneRenderer();
+    private Geometry hovered;
 
-    public DrawingPanel(ArrayList<Geometry> geometries) {
+    private BufferedImage gridLayer;
+    private BufferedImage sceneLayer;
+    private int sceneLayerSize = -1;
+    private String cursorLabel;
+    private Rectangle cursorBounds;
+
+    public DrawingPanel(List<Geometry> geometries) {
         this.geometries = geometries;
-        this.addMouseMotionListener(new MouseMotionAdapter() {
+        MouseAdapter mouse = new MouseAdapter() {
             @Override
             public void mouseMoved(MouseEvent e) {
-                mouseX = e.getX();
-                mouseY = e.getY();
-                repaint();
+                moveCursor(e.getX(), e.getY());
             }
-        });
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+                dragY = e.getY();
+                draggedPoints = pointsAt(e.getX(), e.getY());
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                draggedPoints = null;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (draggedPoints != null) {
+                    Viewport view = getViewport();
+                    int x = (int) Math.round(view.toWorldX(e.getX()));
+                    int y = (int) Math.round(view.toWorldY(e.getY()));
+                    sceneRegionChanged(constructions.movePoints(draggedPoints, x, y));
+                } else {
+                    getViewport().pan(e.getX() - dragX, e.getY() - dragY);
+                    dragX = e.getX();
+                    dragY = e.getY();
+                    viewChanged();
+                }
+                moveCursor(e.getX(), e.getY());
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                getViewport().zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+                viewChanged();
+                moveCursor(e.getX(), e.getY());
+            }
+        };
+        this.addMouseListener(mouse);
+        this.addMouseMotionListener(mouse);
+        this.addMouseWheelListener(mouse);
+    }
+
+    // Call after changing the geometry list in place; appending is picked up on its own
+    public void sceneChanged() {
+        scene = null;
+        sceneLayer = null;
+        hovered = null;
+        repaint();
+    }
+
+    /**
+     * Lets point markers be dragged to move their points. The graph must be
+     * the one the Parser built over this panel's scene; null turns it off.
+     */
+    public void setConstructions(ConstructionGraph constructions) {
+        if (constructions != null && constructions.getScene() != scene()) {
+            throw new IllegalArgumentException("The construction graph belongs to another scene");
+        }
+        this.constructions = constructions;
+    }
+
+    // Movable points of the marker under the given pixel, or null
+    private int[] pointsAt(int x, int y) {
+        if (constructions == null) return null;
+        Viewport view = getViewport();
+        int item = index().nearestItem(view.toWorldX(x), view.toWorldY(y), HOVER_RADIUS / view.getScale());
+        if (item < 0 || scene().kind(item) != SceneStore.POINT) return null;
+        int[] points = constructions.pointsAt(item);
+        return points.length > 0 ? points : null;
+    }
+
+    // Redraws the scene layer over the world area, grown by the size of a marker and its label
+    private void sceneRegionChanged(Rectangle2D world) {
+        if (world == null) return;
+        hovered = null;
+        if (sceneLayer == null || sceneLayerSize != geometries.size()) {
+            // Not drawn yet, or a shared shape was split off: the next paint draws it all
+            repaint();
+            return;
+        }
+        Viewport view = getViewport();
+        int left = (int) Math.floor(view.toScreenX(world.getMinX()));
+        int top = (int) Math.floor(view.toScreenY(world.getMaxY()));
+        int right = (int) Math.ceil(view.toScreenX(world.getMaxX()));
+        int bottom = (int) Math.ceil(view.toScreenY(world.getMinY()));
+        Rectangle area = new Rectangle(left, top, right - left + 1, bottom - top + 1);
+        area.grow(LABEL_MARGIN, LABEL_MARGIN);
+        area = area.intersection(new Rectangle(0, 0, sceneLayer.getWidth(), sceneLayer.getHeight()));
+        if (area.isEmpty()) return;
+
+        Graphics2D layer = sceneLayer.createGraphics();
+        layer.setComposite(AlphaComposite.Clear);
+        layer.fill(area);
+        layer.setComposite(AlphaComposite.SrcOver);
+        layer.setClip(area);
+        drawGeometries(layer, area);
+        layer.dispose();
+        repaint(area);
+    }
+
+    // Call after moving or scaling the viewport from outside the panel
+    public void viewChanged() {
+        gridLayer = null;
+        sceneLayer = null;
+        repaint();
+    }
+
+    // Created on first use with grid (0,0) in the middle of the panel
+    public Viewport getViewport() {
+        if (view == null) {
+            view = new Viewport(GRID_SPACING, getWidth() / 2, getHeight() / 2);
+        }
+        return view;
+    }
+
+    // Nearest point or segment under the given pixel, or null
+    public Geometry geometryAt(int x, int y) {
+        Viewport view = getViewport();
+        return index().nearest(view.toWorldX(x), view.toWorldY(y), HOVER_RADIUS / view.getScale());
+    }
+
+    private SceneStore scene() {
+        if (scene == null || sceneSourceSize != geometries.size()) {
+            scene = SceneStore.of(geometries);
+            sceneSourceSize = geometries.size();
+        }
+        return scene;
+    }
+
+    // Kept by the store, so a scene read from a file brings its index along
+    private SpatialIndex index() {
+        return scene().getIndex();
+    }
+
+    private void moveCursor(int x, int y) {
+        Rectangle oldBounds = cursorBounds;
+        mouseX = x;
+        mouseY = y;
+        hovered = geometryAt(mouseX, mouseY);
+        cursorLabel = cursorLabel();
+        cursorBounds = cursorBounds(cursorLabel);
+        if (oldBounds != null) repaint(oldBounds);
+        repaint(cursorBounds);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        drawCartesianGrid(g);
-        for (Geometry geometry : geometries) {
-            geometry.draw(g);
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) return;
+        PaintEvent event = CompilerMetrics.beginPaint();
+        boolean sceneRedrawn = false;
+
+        if (gridLayer == null || gridLayer.getWidth() != width || gridLayer.getHeight() != height) {
+            gridLayer = createLayer(width, height, Transparency.OPAQUE);
+            Graphics2D layer = gridLayer.createGraphics();
+            layer.setColor(getBackground());
+            layer.fillRect(0, 0, width, height);
+            drawCartesianGrid(layer, getViewport(), new Rectangle(0, 0, width, height));
+            layer.dispose();
+            sceneLayer = null;
+        }
+        if (sceneLayer == null || sceneLayerSize != geometries.size()) {
+            sceneLayer = createLayer(width, height, Transparency.TRANSLUCENT);
+            sceneLayerSize = geometries.size();
+            Graphics2D layer = sceneLayer.createGraphics();
+            drawGeometries(layer, new Rectangle(0, 0, width, height));
+            layer.dispose();
+            sceneRedrawn = true;
         }
+
+        // drawImage only copies the part inside the clip, so a cursor move costs two small blits
+        g.drawImage(gridLayer, 0, 0, null);
+        g.drawImage(sceneLayer, 0, 0, null);
         drawMouseCoordinates(g);
+        CompilerMetrics.painted(event, width, height, sceneRedrawn);
     }
 
-    private void drawCartesianGrid(Graphics g) {
-        int width = getWidth();
-        int height = getHeight();
-        int centerX = width / 2;
-        int centerY = height / 2;
+    private BufferedImage createLayer(int width, int height, int transparency) {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (configuration != null) {
+            return configuration.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height,
+                transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+
+    // Only shapes whose cells meet the area are drawn; a view over the whole scene skips the lookup
+    private void drawGeometries(Graphics2D g, Rectangle area) {
+        Viewport view = getViewport();
+        Rectangle searched = new Rectangle(area);
+        searched.grow(LABEL_MARGIN, LABEL_MARGIN);
+        Rectangle2D visible = view.toWorld(searched);
+        SpatialIndex index = index();
+
+        if (index.countEntries(visible) > LOD_THRESHOLD) {
+            drawDensity(g, index, view, area);
+            // Complete graphs are not in the density map; their edges are drawn as usual, within MAX_DRAWN_EDGES each
+            int[] spanning = index.querySpanning(visible);
+            if (spanning.length > 0) renderer.draw(g, view, scene(), spanning);
+        } else if (visible.contains(index.getBounds())) {
+            renderer.draw(g, view, scene(), null);
+        } else {
+            renderer.draw(g, view, scene(), index.query(visible));
+        }
+    }
+
+    // Index cells are summed into small screen bins, so the cost follows the number of cells in view, not shapes
+    private void drawDensity(Graphics2D g, SpatialIndex index, Viewport view, Rectangle area) {
+        int columns = area.width / DENSITY_CELL + 1;
+        int rows = area.height / DENSITY_CELL + 1;
+        int[] bins = new int[columns * rows];
+        index.forEachCell(view.toWorld(area), (x0, y0, x1, y1, count) -> {
+            int left = (int) view.toScreenX(x0) - area.x;
+            int right = (int) view.toScreenX(x1) - area.x;
+            int top = (int) view.toScreenY(y1) - area.y;
+            int bottom = (int) view.toScreenY(y0) - area.y;
+            if (right - left > DENSITY_CELL) {
+                // Cell larger than a bin: shade it directly
+                g.setColor(DENSITY_COLORS[densityLevel(count)]);
+                g.fillRect(left + area.x, top + area.y, right - left, bottom - top);
+                return;
+            }
+            int column = (left + right) / 2 / DENSITY_CELL;
+            int row = (top + bottom) / 2 / DENSITY_CELL;
+            if (column >= 0 && column < columns && row >= 0 && row < rows) {
+                bins[row * columns + column] += count;
+            }
+        });
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int count = bins[row * columns + column];
+                if (count == 0) continue;
+                g.setColor(DENSITY_COLORS[densityLevel(count)]);
+                g.fillRect(area.x + column * DENSITY_CELL, area.y + row * DENSITY_CELL, DENSITY_CELL, DENSITY_CELL);
+            }
+        }
+    }
+
+    private static int densityLevel(int count) {
+        return Math.min(DENSITY_COLORS.length - 1, 31 - Integer.numberOfLeadingZeros(count));
+    }
+
+    private static Color[] densityColors() {
+        Color[] colors = new Color[16];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new Color(0, 160, 0, 48 + i * 207 / (colors.length - 1));
+        }
+        return colors;
+    }
+
+    // Grid, axes and axis labels of the view, covering the given pixel area
+    static void drawCartesianGrid(Graphics g, Viewport view, Rectangle area) {
+        drawCartesianGrid(g, view, area, area);
+    }
+
+    // The part of the frame's grid that reaches into area, as a tile of it; the lines
+    // end and the axis arrows sit at the frame's edges, wherever the tile is
+    static void drawCartesianGrid(Graphics g, Viewport view, Rectangle frame, Rectangle area) {
+        int left = frame.x;
+        int top = frame.y;
+        int right = frame.x + frame.width;
+        int bottom = frame.y + frame.height;
+        int centerX = (int) Math.round(view.getOriginX());
+        int centerY = (int) Math.round(view.getOriginY());
+        double step = gridStep(view.getScale());
+        // Labels are drawn right of and above their grid line, so look a label's width further
+        long firstX = (long) Math.floor(view.toWorldX(Math.max(left, area.x - LABEL_MARGIN)) / step);
+        long lastX = (long) Math.ceil(view.toWorldX(Math.min(right, area.x + area.width)) / step);
+        long firstY = (long) Math.floor(view.toWorldY(Math.min(bottom, area.y + area.height + LABEL_MARGIN)) / step);
+        long lastY = (long) Math.ceil(view.toWorldY(Math.max(top, area.y)) / step);
 
         // Draw grid lines
         g.setColor(GRID_COLOR);
-        for (int x = centerX; x < width; x += GRID_SPACING) {
-            g.drawLine(x, 0, x, height); // Right half
-            g.drawLine(centerX - (x - centerX), 0, centerX - (x - centerX), height); // Left half
+        for (long k = firstX; k <= lastX; k++) {
+            int x = (int) Math.round(view.toScreenX(k * step));
+            if (x > left && x < right) g.drawLine(x, top, x, bottom);
         }
-        for (int y = centerY; y < height; y += GRID_SPACING) {
-            g.drawLine(0, y, width, y); // Bottom half
-            g.drawLine(0, centerY - (y - centerY), width, centerY - (y - centerY)); // Top half
+        for (long k = firstY; k <= lastY; k++) {
+            int y = (int) Math.round(view.toScreenY(k * step));
+            if (y > top && y < bottom) g.drawLine(left, y, right, y);
         }
 
         // Draw x and y axes with arrows
         g.setColor(Color.BLACK);
-        g.drawLine(centerX, 0, centerX, height); // Y-axis
-        g.drawLine(0, centerY, width, centerY); // X-axis
-        drawArrow(g, width - 10, centerY, width - 20, centerY - 5); // X-axis arrow (positive)
-        drawArrow(g, width - 10, centerY, width - 20, centerY + 5);
-        drawArrow(g, centerX, 10, centerX - 5, 20); // Y-axis arrow (positive)
-        drawArrow(g, centerX, 10, centerX + 5, 20);
+        g.drawLine(centerX, top, centerX, bottom); // Y-axis
+        g.drawLine(left, centerY, right, centerY); // X-axis
+        drawArrow(g, right - 10, centerY, right - 20, centerY - 5); // X-axis arrow (positive)
+        drawArrow(g, right - 10, centerY, right - 20, centerY + 5);
+        drawArrow(g, centerX, top + 10, centerX - 5, top + 20); // Y-axis arrow (positive)
+        drawArrow(g, centerX, top + 10, centerX + 5, top + 20);
 
         // Draw labels only on the axes
         g.setColor(Color.BLACK);
-        g.setFont(new Font("Arial", Font.PLAIN, 10));
+        g.setFont(AXIS_FONT);
 
         // Label origin
         g.drawString("0", centerX + 5, centerY - 5);
 
-        // Label positive and negative X-axis
-        for (int x = centerX + GRID_SPACING; x < width; x += GRID_SPACING) {
-            int gridX = (x - centerX) / GRID_SPACING;
-            g.drawString(String.valueOf(gridX), x + 2, centerY - 2);
-            g.drawString(String.valueOf(-gridX), centerX - (x - centerX) + 2, centerY - 2);
+        // Label X-axis
+        for (long k = firstX; k <= lastX; k++) {
+            int x = (int) Math.round(view.toScreenX(k * step));
+            if (k != 0 && x > left && x < right) g.drawString(gridLabel(k, step), x + 2, centerY - 2);
+        }
+
+        // Label Y-axis
+        for (long k = firstY; k <= lastY; k++) {
+            int y = (int) Math.round(view.toScreenY(k * step));
+            if (k != 0 && y > top && y < bottom) g.drawString(gridLabel(k, step), centerX + 2, y - 2);
         }
+    }
 
-        // Label positive and negative Y-axis
-        for (int y = centerY + GRID_SPACING; y < height; y += GRID_SPACING) {
-            int gridY = -(y - centerY) / GRID_SPACING;
-            g.drawString(String.valueOf(gridY), centerX + 2, y - 2);
-            g.drawString(String.valueOf(-gridY), centerX + 2, centerY - (y - centerY) - 2);
+    // Grid line distance in world units: 1, 2 or 5 times a power of ten, at least MIN_GRID_PIXELS apart
+    static double gridStep(double scale) {
+        double minimum = MIN_GRID_PIXELS / scale;
+        double power = Math.pow(10, Math.floor(Math.log10(minimum)));
+        for (double factor : new double[]{1, 2, 5, 10}) {
+            if (factor * power >= minimum) return factor * power;
         }
+        return 10 * power;
+    }
+
+    // k * step without floating point noise, e.g. 3 * 0.1 prints as 0.3
+    static String gridLabel(long k, double step) {
+        return BigDecimal.valueOf(k).multiply(BigDecimal.valueOf(step)).stripTrailingZeros().toPlainString();
     }
 
-    private void drawArrow(Graphics g, int x1, int y1, int x2, int y2) {
+    private static void drawArrow(Graphics g, int x1, int y1, int x2, int y2) {
         Graphics2D g2d = (Graphics2D) g.create();
         g2d.setStroke(new BasicStroke(2));
         g2d.drawLine(x1, y1, x2, y2);
@@ -90,73 +401,410 @@ class DrawingPanel extends JPanel {
     }
 
     private void drawMouseCoordinates(Graphics g) {
-        int centerX = getWidth() / 2;
-        int centerY = getHeight() / 2;
-        if (mouseX >= 0 && mouseY >= 0) {
+        if (cursorLabel != null) {
             g.setColor(Color.RED);
-            g.setFont(new Font("Arial", Font.BOLD, 12));
-            int gridX = (mouseX - centerX) / GRID_SPACING;
-            int gridY = -(mouseY - centerY) / GRID_SPACING;
-            g.drawString("Mouse: (" + gridX + ", " + gridY + ")", mouseX + 10, mouseY - 10);
+            g.setFont(CURSOR_FONT);
+            g.drawString(cursorLabel, mouseX + 10, mouseY - 10);
+        }
+    }
+
+    private String cursorLabel() {
+        int gridX = (int) getViewport().toWorldX(mouseX);
+        int gridY = (int) getViewport().toWorldY(mouseY);
+        String label = "Mouse: (" + gridX + ", " + gridY + ")";
+        if (hovered instanceof PointGeometry point) {
+            label += " " + point.getName();
+        } else if (hovered instanceof SegmentGeometry segment) {
+            label += " (" + segment.getX1() + "," + segment.getY1() + ")-("
+                    + segment.getX2() + "," + segment.getY2() + ")";
+        } else if (hovered instanceof CompleteGraphGeometry graph) {
+            label += " " + graph.getVertexCount() + " connected points";
         }
+        return label;
+    }
+
+    // Area covered by the readout drawn at the current mouse position, with a pixel of slack
+    private Rectangle cursorBounds(String label) {
+        FontMetrics metrics = getFontMetrics(CURSOR_FONT);
+        return new Rectangle(mouseX + 10 - 1, mouseY - 10 - metrics.getAscent() - 1,
+                metrics.stringWidth(label) + 2, metrics.getAscent() + metrics.getDescent() + 2);
     }
 }
 
 interface Geometry {
-    void draw(Graphics g);
+    void draw(Graphics2D g, Viewport view);
+
+    // World area of the shape itself; markers and labels are sized in pixels and not included
+    Rectangle2D getBounds();
+
+    // World distance from (x, y) to the shape
+    double distanceTo(double x, double y);
 }
 
 class PointGeometry implements Geometry {
     private final String name;
     private final int x, y;
-    private static final int POINT_SIZE = 10;
-    private static final Color POINT_COLOR = Color.BLUE;
-    private static final Color BORDER_COLOR = Color.BLACK;
-    private static final Color SHADOW_COLOR = new Color(150, 150, 150, 150);
-    private static final Font NAME_FONT = new Font("SansSerif", Font.BOLD, 14);
+    // Shared with SceneRenderer, which draws the same marker from a sprite
+    static final int POINT_SIZE = 10;
+    static final Color POINT_COLOR = Color.BLUE;
+    static final Color BORDER_COLOR = Color.BLACK;
+    static final Color SHADOW_COLOR = new Color(150, 150, 150, 150);
+    static final Font NAME_FONT = new Font("SansSerif", Font.BOLD, 14);
 
     public PointGeometry(String name, int x, int y) {
-        int centerX = 400; // Assuming a 800x800 panel
-        int centerY = 286; // Adjusted center to match your previous implementation
-        this.x = centerX + x * DrawingPanel.GRID_SPACING; // X coordinate remains the same
-        this.y = centerY - y * DrawingPanel.GRID_SPACING; // Invert the Y-coordinate
         this.name = name;
+        this.x = x;
+        this.y = y;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
     }
 
     @Override
-    public void draw(Graphics g) {
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    public Rectangle2D getBounds() {
+        return new Rectangle2D.Double(x, y, 0, 0);
+    }
 
-        g2d.setColor(SHADOW_COLOR);
-        g2d.fill(new Ellipse2D.Double(x - POINT_SIZE / 2 + 3, y - POINT_SIZE / 2 + 3, POINT_SIZE, POINT_SIZE));
+    @Override
+    public double distanceTo(double px, double py) {
+        return Math.hypot(px - x, py - y);
+    }
 
-        g2d.setColor(BORDER_COLOR);
-        g2d.drawOval(x - POINT_SIZE / 2, y - POINT_SIZE / 2, POINT_SIZE, POINT_SIZE);
-        g2d.setColor(POINT_COLOR);
-        g2d.fillOval(x - POINT_SIZE / 2 + 1, y - POINT_SIZE / 2 + 1, POINT_SIZE - 2, POINT_SIZE - 2);
+    // Points are the same shape when both name and position match
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PointGeometry point && x == point.x && y == point.y && name.equals(point.name);
+    }
 
-        g2d.setFont(NAME_FONT);
-        g2d.setColor(Color.BLACK);
-        g2d.drawString(name, x + POINT_SIZE / 2 + 5, y + 5);
+    @Override
+    public int hashCode() {
+        return (name.hashCode() * 31 + x) * 92821 + y;
+    }
+
+    @Override
+    public void draw(Graphics2D g, Viewport view) {
+        int x = (int) Math.round(view.toScreenX(this.x));
+        int y = (int) Math.round(view.toScreenY(this.y));
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        g.setColor(SHADOW_COLOR);
+        g.fill(new Ellipse2D.Double(x - POINT_SIZE / 2 + 3, y - POINT_SIZE / 2 + 3, POINT_SIZE, POINT_SIZE));
+
+        g.setColor(BORDER_COLOR);
+        g.drawOval(x - POINT_SIZE / 2, y - POINT_SIZE / 2, POINT_SIZE, POINT_SIZE);
+        g.setColor(POINT_COLOR);
+        g.fillOval(x - POINT_SIZE / 2 + 1, y - POINT_SIZE / 2 + 1, POINT_SIZE - 2, POINT_SIZE - 2);
+
+        g.setFont(NAME_FONT);
+        g.setColor(Color.BLACK);
+        g.drawString(name, x + POINT_SIZE / 2 + 5, y + 5);
     }
 }
 
 class SegmentGeometry implements Geometry {
+    static final Color COLOR = Color.GREEN;
     private final int x1, y1, x2, y2;
 
     public SegmentGeometry(int x1, int y1, int x2, int y2) {
-        int centerX = 400; // Assuming a 800x800 panel
-        int centerY = 286; // Adjusted center to match your previous implementation
-        this.x1 = centerX + x1 * DrawingPanel.GRID_SPACING;
-        this.y1 = centerY - y1 * DrawingPanel.GRID_SPACING;
-        this.x2 = centerX + x2 * DrawingPanel.GRID_SPACING;
-        this.y2 = centerY - y2 * DrawingPanel.GRID_SPACING;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return new Rectangle2D.Double(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+    }
+
+    @Override
+    public double distanceTo(double px, double py) {
+        return distance(px, py, x1, y1, x2, y2);
+    }
+
+    static double distance(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double t = Math.max(0, Math.min(1, GeometryKernel.projectionParameter(px, py, x1, y1, x2, y2)));
+        return Math.hypot(px - (x1 + t * dx), py - (y1 + t * dy));
+    }
+
+    // A segment is the same shape whichever end it was drawn from
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SegmentGeometry segment
+                && (x1 == segment.x1 && y1 == segment.y1 && x2 == segment.x2 && y2 == segment.y2
+                || x1 == segment.x2 && y1 == segment.y2 && x2 == segment.x1 && y2 == segment.y1);
+    }
+
+    @Override
+    public int hashCode() {
+        // Endpoints are hashed apart from each other so their order does not matter
+        int a = x1 * 92821 + y1;
+        int b = x2 * 92821 + y2;
+        return Math.min(a, b) * 31 + Math.max(a, b);
+    }
+
+    @Override
+    public void draw(Graphics2D g, Viewport view) {
+        g.setColor(COLOR);
+        g.drawLine((int) Math.round(view.toScreenX(x1)), (int) Math.round(view.toScreenY(y1)),
+                (int) Math.round(view.toScreenX(x2)), (int) Math.round(view.toScreenY(y2)));
+    }
+}
+
+/**
+ * Every pair of a list of points joined by a segment, as "зʼєднати точки" draws it.
+ * Only the vertices are stored: the n(n-1)/2 edges are generated while drawing,
+ * and edges wholly outside the clip are skipped. On screen a graph draws at most
+ * MAX_DRAWN_EDGES edges: past that its vertices are merged on a screen grid,
+ * coarser until the budget holds, as the density map merges shapes.
+ */
+class CompleteGraphGeometry implements Geometry {
+    static final long MAX_DRAWN_EDGES = 1 << 18;
+    private final int[] xs, ys;
+    private final Rectangle2D bounds;
+
+    interface EdgeVisitor {
+        void edge(float x1, float y1, float x2, float y2);
+    }
+
+    public CompleteGraphGeometry(int[] xs, int[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        this.bounds = xs.length > 0
+                ? new Rectangle2D.Double(minX, minY, (double) maxX - minX, (double) maxY - minY)
+                : new Rectangle2D.Double();
+    }
+
+    public int getVertexCount() {
+        return xs.length;
+    }
+
+    public int getX(int vertex) {
+        return xs[vertex];
+    }
+
+    public int getY(int vertex) {
+        return ys[vertex];
+    }
+
+    public long getEdgeCount() {
+        return (long) xs.length * (xs.length - 1) / 2;
     }
 
     @Override
-    public void draw(Graphics g) {
-        g.setColor(Color.GREEN);
-        g.drawLine(x1, y1, x2, y2);
+    public Rectangle2D getBounds() {
+        return (Rectangle2D) bounds.clone();
     }
-}
\ No newline at end of file
+
+    @Override
+    public double distanceTo(double px, double py) {
+        return distanceToAny(px, py);
+    }
+
+    /**
+     * Distance to the nearest edge, or infinity when no edge comes within
+     * limit. All edges of a vertex within limit of P are measured. Any other
+     * edge within limit has its ends in nearly opposite directions from P:
+     * each end at distance d is at most asin(limit / d) off, and one of them
+     * is off by no more than the other. With the far vertices sorted by angle,
+     * each is only paired with those in a window around its opposite
+     * direction, twice its own allowance wide.
+     */
+    public double distanceTo(double px, double py, double limit) {
+        if (!(limit < Double.POSITIVE_INFINITY)) return distanceToAny(px, py);
+        int n = xs.length;
+        double nearest = Double.POSITIVE_INFINITY;
+        // Angle shifted to [0, 2pi] in the high half, vertex in the low half; such floats sort as ints
+        long[] far = new long[n];
+        int farCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (Math.hypot(xs[i] - px, ys[i] - py) <= limit) {
+                for (int j = 0; j < n; j++) {
+                    if (j != i) nearest = Math.min(nearest, SegmentGeometry.distance(px, py, xs[i], ys[i], xs[j], ys[j]));
+                }
+            } else {
+                float angle = (float) (Math.atan2(ys[i] - py, xs[i] - px) + Math.PI);
+                far[farCount++] = ((long) Float.floatToIntBits(angle) << 32) | i;
+            }
+        }
+        Arrays.sort(far, 0, farCount);
+        float[] angles = new float[farCount];
+        for (int k = 0; k < farCount; k++) {
+            angles[k] = Float.intBitsToFloat((int) (far[k] >>> 32));
+        }
+        for (int k = 0; k < farCount; k++) {
+            int i = (int) far[k];
+            // Slack for the float angles
+            double window = 2 * Math.asin(limit / Math.hypot(xs[i] - px, ys[i] - py)) + 1e-5;
+            double opposite = angles[k] < Math.PI ? angles[k] + Math.PI : angles[k] - Math.PI;
+            int from, to;
+            if (window >= Math.PI) {
+                from = 0;
+                to = farCount;
+            } else {
+                from = firstAtLeast(angles, farCount, opposite - window);
+                to = firstAtLeast(angles, farCount, opposite + window + Double.MIN_VALUE);
+            }
+            // A window past either end of [0, 2pi] continues at the other end
+            int wrapFrom = opposite - window < 0 ? firstAtLeast(angles, farCount, opposite - window + 2 * Math.PI) : farCount;
+            int wrapTo = opposite + window > 2 * Math.PI ? firstAtLeast(angles, farCount, opposite + window - 2 * Math.PI) : 0;
+            nearest = Math.min(nearest, nearestEdge(px, py, i, far, from, to));
+            nearest = Math.min(nearest, nearestEdge(px, py, i, far, Math.max(wrapFrom, to), farCount));
+            nearest = Math.min(nearest, nearestEdge(px, py, i, far, 0, Math.min(wrapTo, from)));
+        }
+        return nearest <= limit ? nearest : Double.POSITIVE_INFINITY;
+    }
+
+    private static int firstAtLeast(float[] angles, int count, double angle) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (angles[mid] < angle) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Nearest of the edges from vertex i to the vertices in far[from, to)
+    private double nearestEdge(double px, double py, int i, long[] far, int from, int to) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int k = from; k < to; k++) {
+            int j = (int) far[k];
+            if (j != i) nearest = Math.min(nearest, SegmentGeometry.distance(px, py, xs[i], ys[i], xs[j], ys[j]));
+        }
+        return nearest;
+    }
+
+    // Edges lying wholly to one side of the box around (px, py) of the best distance so far are skipped
+    private double distanceToAny(double px, double py) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            for (int j = i + 1; j < xs.length; j++) {
+                if (xs[i] < px - nearest && xs[j] < px - nearest || xs[i] > px + nearest && xs[j] > px + nearest
+                        || ys[i] < py - nearest && ys[j] < py - nearest || ys[i] > py + nearest && ys[j] > py + nearest) {
+                    continue;
+                }
+                nearest = Math.min(nearest, SegmentGeometry.distance(px, py, xs[i], ys[i], xs[j], ys[j]));
+            }
+        }
+        return nearest;
+    }
+
+    // Every edge that may cross the clip, exactly; for export
+    public void forEachVisibleEdge(Viewport view, Rectangle clip, EdgeVisitor visitor) {
+        forEachVisibleEdge(view, clip, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Passes the screen coordinates of every edge that may cross the clip to the
+     * visitor. Vertices get Cohen-Sutherland region codes once, so an edge with
+     * both ends beyond the same side of the clip costs one AND. A null clip
+     * visits every edge. With more than maxEdges edges, vertices are first
+     * merged into the centers of screen cells, doubling the cell size until
+     * the merged vertices have at most maxEdges edges.
+     */
+    public void forEachVisibleEdge(Viewport view, Rectangle clip, long maxEdges, EdgeVisitor visitor) {
+        int n = xs.length;
+        float[] sx = new float[n];
+        float[] sy = new float[n];
+        for (int i = 0; i < n; i++) {
+            sx[i] = Math.round(view.toScreenX(xs[i]));
+            sy[i] = Math.round(view.toScreenY(ys[i]));
+        }
+        if ((long) n * (n - 1) / 2 > maxEdges) {
+            // Always merged from the exact positions, so vertices do not drift as cells grow
+            float[] exactX = sx.clone();
+            float[] exactY = sy.clone();
+            for (double cell = 1; (long) n * (n - 1) / 2 > maxEdges; cell *= 2) {
+                n = mergeVertices(exactX, exactY, cell, sx, sy);
+            }
+        }
+        int[] codes = new int[n];
+        if (clip != null) {
+            for (int i = 0; i < n; i++) {
+                codes[i] = (sx[i] < clip.x ? 1 : 0) | (sx[i] > clip.x + clip.width ? 2 : 0)
+                        | (sy[i] < clip.y ? 4 : 0) | (sy[i] > clip.y + clip.height ? 8 : 0);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int code = codes[i];
+            for (int j = i + 1; j < n; j++) {
+                if ((code & codes[j]) == 0) {
+                    visitor.edge(sx[i], sy[i], sx[j], sy[j]);
+                }
+            }
+        }
+    }
+
+    // Stores one vertex per occupied cell, at the cell's center pixel, in sx and sy; returns how many
+    private static int mergeVertices(float[] exactX, float[] exactY, double cell, float[] sx, float[] sy) {
+        long[] cells = new long[exactX.length];
+        for (int i = 0; i < cells.length; i++) {
+            long column = (long) Math.floor(exactX[i] / cell);
+            long row = (long) Math.floor(exactY[i] / cell);
+            cells[i] = (column << 32) | (row & 0xFFFFFFFFL);
+        }
+        Arrays.sort(cells);
+        int count = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0 && cells[i] == cells[i - 1]) continue;
+            sx[count] = (float) ((cells[i] >> 32) * cell + (cell - 1) / 2);
+            sy[count] = (float) ((int) cells[i] * cell + (cell - 1) / 2);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void draw(Graphics2D g, Viewport view) {
+        g.setColor(SegmentGeometry.COLOR);
+        forEachVisibleEdge(view, g.getClipBounds(), MAX_DRAWN_EDGES,
+                (x1, y1, x2, y2) -> g.drawLine((int) x1, (int) y1, (int) x2, (int) y2));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CompleteGraphGeometry graph && Arrays.equals(xs, graph.xs) && Arrays.equals(ys, graph.ys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(xs) * 31 + Arrays.hashCode(ys);
+    }
+}
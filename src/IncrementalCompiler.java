@@ -0,0 +1,614 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps a script compiled while it is being edited.
+ * <p>
+ * The script is split into statements at standalone ';' words. Each statement
+ * is compiled on its own, with the semantic checks fused in, against what the
+ * statements before it defined: point values, placed points, segments and
+ * complete graphs. The result is cached under the statement text together with
+ * everything the statement read. After an edit, only statements whose text
+ * changed, or whose inputs were changed by an earlier statement, are looked at
+ * again, and only those without a matching cached result are lexed and parsed.
+ * <p>
+ * For that, every fact a statement defines is indexed by name with the
+ * statements that define it, in script order, and so is every fact a statement
+ * read. A statement whose definitions change queues the later readers whose
+ * answer may differ. An edit therefore costs time in the changed statements
+ * and their readers, not in the length of the script.
+ * <p>
+ * The scene is kept merged across edits: a statement whose result changed
+ * takes its old shapes' references off the store and adds its new ones. Shapes
+ * are therefore not in script order. The program and the diagnostics are put
+ * together again on the first request after an edit.
+ * <p>
+ * Points placed by the allocator keep their cells across edits, so the layout
+ * stays stable while typing. It may differ from a fresh compile of the same
+ * text. Every cached compile holds the cells of the points it defined, and
+ * gives them back when it is evicted; a cell is free once no compile holds it.
+ */
+class IncrementalCompiler {
+    // Order keys of new statements are spaced this far apart, so most inserts fit between two
+    private static final long ORDER_STEP = 1L << 20;
+
+    private final CoordinateAllocator coordinateAllocator;
+    private final Map<String, List<CompiledStatement>> cache = new HashMap<>();
+    private int cachedVariants;
+
+    private final StringBuilder source = new StringBuilder();
+    private final ArrayList<StatementRegion> statements = new ArrayList<>();
+    // Statements to look at again, in script order
+    private final NavigableSet<StatementRegion> pending = new TreeSet<>(StatementRegion.ORDER);
+
+    // A reader of a point sees the nearest definition before it
+    private final Facts points = new Facts(Facts.Answer.NEAREST);
+    // "поставити точку" only fails after an earlier one, so readers depend on the first
+    private final Facts placed = new Facts(Facts.Answer.FIRST);
+    private final Facts lines = new Facts(Facts.Answer.FIRST);
+    // A line between two points of one list needs both names in the same statement
+    private final Facts graphs = new Facts(Facts.Answer.ANY);
+
+    private SceneStore scene = new SceneStore();
+    private ProgramNode program;
+    private List<Diagnostic> diagnostics;
+    private List<String> errors;
+    private int recompiledStatements;
+
+    public IncrementalCompiler() {
+        this(new CoordinateAllocator());
+    }
+
+    public IncrementalCompiler(CoordinateAllocator coordinateAllocator) {
+        this.coordinateAllocator = coordinateAllocator;
+    }
+
+    // Replaces the whole script; unchanged statements are still served from the cache
+    public void update(String newSource) {
+        scene = new SceneStore();
+        for (Facts facts : new Facts[]{points, placed, lines, graphs}) {
+            facts.writers.clear();
+            facts.readers.clear();
+        }
+        pending.clear();
+        source.setLength(0);
+        source.append(newSource);
+        statements.clear();
+        statements.addAll(split(source, 0, source.length()));
+        for (int i = 0; i < statements.size(); i++) {
+            statements.get(i).order = i * ORDER_STEP;
+        }
+        pending.addAll(statements);
+        rebuild();
+    }
+
+    // Replaces source[start, end) with replacement and only re-splits the statements around it
+    public void edit(int start, int end, String replacement) {
+        source.replace(start, end, replacement);
+        if (statements.isEmpty()) {
+            update(source.toString());
+            return;
+        }
+        int delta = replacement.length() - (end - start);
+
+        // A separator needs whitespace on both sides, so an edit next to one can merge or
+        // split its neighbours: take one extra statement on each side.
+        int first = Math.max(0, statementAt(start) - 1);
+        int last = Math.min(statements.size() - 1, statementAt(end) + 1);
+        int from = statements.get(first).start;
+        int to = statements.get(last).end + delta;
+
+        List<StatementRegion> replaced = split(source, from, to);
+        List<StatementRegion> removed = statements.subList(first, last + 1);
+        for (StatementRegion region : removed) {
+            pending.remove(region);
+            retract(region);
+        }
+        removed.clear();
+        statements.addAll(first, replaced);
+        for (int i = first + replaced.size(); i < statements.size(); i++) {
+            statements.get(i).start += delta;
+            statements.get(i).end += delta;
+        }
+        order(first, replaced.size());
+        pending.addAll(replaced);
+        rebuild();
+    }
+
+    public ProgramNode getProgram() {
+        collect();
+        return program;
+    }
+
+    public List<Geometry> getGeometries() {
+        return scene;
+    }
+
+    public SceneStore getScene() {
+        return scene;
+    }
+
+    // Syntax and semantic errors, in script order, numbered by statement as BatchCompiler does
+    public List<Diagnostic> getDiagnostics() {
+        collect();
+        return diagnostics;
+    }
+
+    // The diagnostics' messages, and any statement that failed outright
+    public List<String> getErrors() {
+        collect();
+        return errors;
+    }
+
+    public int getStatementCount() {
+        return statements.size();
+    }
+
+    // Number of statements that had to be lexed and parsed by the last update or edit
+    public int getRecompiledStatements() {
+        return recompiledStatements;
+    }
+
+    // Gives count new statements from index first on order keys between their neighbours
+    private void order(int first, int count) {
+        long low = first > 0 ? statements.get(first - 1).order : Long.MIN_VALUE;
+        int next = first + count;
+        long high = next < statements.size() ? statements.get(next).order : Long.MAX_VALUE;
+        if (low == Long.MIN_VALUE) low = (high == Long.MAX_VALUE ? 0 : high) - (count + 1) * ORDER_STEP;
+        if (high == Long.MAX_VALUE) high = low + (count + 1) * ORDER_STEP;
+        long step = (high - low) / (count + 1);
+        if (step == 0) {
+            // No room left between the neighbours: space all statements out again, keeping their order
+            for (int i = 0; i < statements.size(); i++) {
+                statements.get(i).order = i * ORDER_STEP;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            statements.get(first + i).order = low + (i + 1) * step;
+        }
+    }
+
+    private void rebuild() {
+        recompiledStatements = 0;
+        program = null;
+        StatementRegion region;
+        while ((region = pending.pollFirst()) != null) {
+            if (region.text.isEmpty()) continue;
+
+            // Most queued statements read the same values as before: check the previous result first
+            CompiledStatement compiled = region.compiled;
+            if (compiled == null || !readsMatch(compiled, region)) {
+                compiled = lookup(region);
+            }
+            if (compiled == null) {
+                compiled = compile(region);
+                cache.computeIfAbsent(region.text, k -> new ArrayList<>(1)).add(compiled);
+                cachedVariants++;
+                recompiledStatements++;
+            }
+            if (compiled != region.compiled) {
+                retract(region);
+                region.compiled = compiled;
+                apply(region);
+            }
+        }
+
+        if (cachedVariants > 2 * statements.size() + 64) {
+            evictUnused();
+        }
+    }
+
+    // Takes a statement's result out of the scene and the fact index, queueing readers of what it defined
+    private void retract(StatementRegion region) {
+        CompiledStatement compiled = region.compiled;
+        if (compiled == null) return;
+        // Statements are compiled apart, so shapes they share are only merged here
+        scene.removeAll(compiled.scene);
+        for (String name : compiled.readNames) points.removeReader(name, region);
+        for (String name : compiled.placedReads) placed.removeReader(name, region);
+        for (int i = 0; i < compiled.lineReads.length; i += 2) {
+            lines.removeReader(compiled.lineReads[i] + compiled.lineReads[i + 1], region);
+            graphs.removeReader(compiled.lineReads[i], region);
+            graphs.removeReader(compiled.lineReads[i + 1], region);
+        }
+        for (String name : compiled.writeNames) points.removeWriter(name, region, pending);
+        for (String name : compiled.placedWrites) placed.removeWriter(name, region, pending);
+        for (String line : compiled.lineWrites) lines.removeWriter(line, region, pending);
+        for (String name : compiled.graphWrites) graphs.removeWriter(name, region, pending);
+        region.compiled = null;
+    }
+
+    private void apply(StatementRegion region) {
+        CompiledStatement compiled = region.compiled;
+        scene.addAll(compiled.scene);
+        for (String name : compiled.readNames) points.addReader(name, region);
+        for (String name : compiled.placedReads) placed.addReader(name, region);
+        for (int i = 0; i < compiled.lineReads.length; i += 2) {
+            lines.addReader(compiled.lineReads[i] + compiled.lineReads[i + 1], region);
+            graphs.addReader(compiled.lineReads[i], region);
+            graphs.addReader(compiled.lineReads[i + 1], region);
+        }
+        for (String name : compiled.writeNames) points.addWriter(name, region, pending);
+        for (String name : compiled.placedWrites) placed.addWriter(name, region, pending);
+        for (String line : compiled.lineWrites) lines.addWriter(line, region, pending);
+        for (String name : compiled.graphWrites) graphs.addWriter(name, region, pending);
+    }
+
+    // Puts the program and the diagnostics together in script order, once per edit
+    private void collect() {
+        if (program != null) return;
+        program = new ProgramNode();
+        diagnostics = new ArrayList<>();
+        errors = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) {
+            CompiledStatement compiled = statements.get(i).compiled;
+            if (compiled == null) continue;
+            if (compiled.operation != null) program.addChild(compiled.operation);
+            for (Diagnostic diagnostic : compiled.diagnostics) {
+                Diagnostic numbered = new Diagnostic(diagnostic.getKind(), i, diagnostic.getSubject(),
+                        diagnostic.getExpected());
+                diagnostics.add(numbered);
+                errors.add(numbered.toString());
+            }
+            if (compiled.error != null) errors.add(compiled.error);
+        }
+    }
+
+    private PointRef pointBefore(String name, StatementRegion region) {
+        StatementRegion writer = points.nearestBefore(name, region);
+        return writer == null ? null : writer.compiled.written(name);
+    }
+
+    private boolean placedBefore(String name, StatementRegion region) {
+        return placed.nearestBefore(name, region) != null;
+    }
+
+    private boolean lineBefore(String a, String b, StatementRegion region) {
+        if (lines.nearestBefore(a + b, region) != null) return true;
+        NavigableSet<StatementRegion> first = graphs.writersBefore(a, region);
+        NavigableSet<StatementRegion> second = graphs.writersBefore(b, region);
+        if (first.size() > second.size()) {
+            NavigableSet<StatementRegion> swap = first;
+            first = second;
+            second = swap;
+        }
+        for (StatementRegion writer : first) {
+            if (second.contains(writer)) return true;
+        }
+        return false;
+    }
+
+    private boolean readsMatch(CompiledStatement compiled, StatementRegion region) {
+        for (int i = 0; i < compiled.readNames.length; i++) {
+            if (!samePoint(compiled.readValues[i], pointBefore(compiled.readNames[i], region))) return false;
+        }
+        for (int i = 0; i < compiled.placedReads.length; i++) {
+            if (compiled.placedAnswers[i] != placedBefore(compiled.placedReads[i], region)) return false;
+        }
+        for (int i = 0; i < compiled.lineAnswers.length; i++) {
+            String a = compiled.lineReads[2 * i];
+            String b = compiled.lineReads[2 * i + 1];
+            if (compiled.lineAnswers[i] != lineBefore(a, b, region)) return false;
+        }
+        return true;
+    }
+
+    private static boolean samePoint(PointRef a, PointRef b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return a.getX() == b.getX() && a.getY() == b.getY();
+    }
+
+    private CompiledStatement lookup(StatementRegion region) {
+        List<CompiledStatement> variants = cache.get(region.text);
+        if (variants == null) return null;
+        for (CompiledStatement variant : variants) {
+            if (readsMatch(variant, region)) return variant;
+        }
+        return null;
+    }
+
+    private CompiledStatement compile(StatementRegion region) {
+        StatementScope scope = new StatementScope(region);
+        Parser parser = new Parser(LexicalAnalyser.tokenize(region.text).stream(), coordinateAllocator, scope);
+        parser.enableSemanticChecks();
+        parser.enableErrorRecovery();
+        CompiledStatement compiled = new CompiledStatement();
+        try {
+            List<Node> operations = parser.parse().getOperations();
+            compiled.operation = operations.isEmpty() ? null : operations.get(0);
+            compiled.scene = parser.getScene();
+        } catch (RuntimeException e) {
+            compiled.error = e.getMessage() + " in statement: " + region.text;
+            compiled.scene = new SceneStore();
+        }
+        compiled.diagnostics = parser.getDiagnostics().toArray(new Diagnostic[0]);
+        compiled.reserved = parser.getReservedPoints().toArray(new PointRef[0]);
+        compiled.readNames = scope.reads.keySet().toArray(new String[0]);
+        compiled.readValues = new PointRef[compiled.readNames.length];
+        for (int i = 0; i < compiled.readNames.length; i++) {
+            compiled.readValues[i] = scope.reads.get(compiled.readNames[i]);
+        }
+        compiled.placedReads = scope.placedReads.keySet().toArray(new String[0]);
+        compiled.placedAnswers = new boolean[compiled.placedReads.length];
+        for (int i = 0; i < compiled.placedReads.length; i++) {
+            compiled.placedAnswers[i] = scope.placedReads.get(compiled.placedReads[i]);
+        }
+        compiled.lineReads = scope.lineReads.toArray(new String[0]);
+        compiled.lineAnswers = new boolean[scope.lineAnswers.size()];
+        for (int i = 0; i < compiled.lineAnswers.length; i++) {
+            compiled.lineAnswers[i] = scope.lineAnswers.get(i);
+        }
+        compiled.writeNames = scope.getPoints().keySet().toArray(new String[0]);
+        compiled.writeValues = new PointRef[compiled.writeNames.length];
+        for (int i = 0; i < compiled.writeNames.length; i++) {
+            compiled.writeValues[i] = scope.getOwn(compiled.writeNames[i]);
+        }
+        compiled.placedWrites = scope.placedWrites.toArray(new String[0]);
+        compiled.lineWrites = scope.lineWrites.toArray(new String[0]);
+        compiled.graphWrites = scope.graphWrites.toArray(new String[0]);
+        return compiled;
+    }
+
+    // Evictions are rare enough that marking the live results by a walk over the script costs nothing
+    private void evictUnused() {
+        for (StatementRegion region : statements) {
+            if (region.compiled != null) region.compiled.used = true;
+        }
+        cachedVariants = 0;
+        cache.values().removeIf(variants -> {
+            variants.removeIf(variant -> {
+                if (variant.used) return false;
+                for (PointRef point : variant.reserved) {
+                    coordinateAllocator.release(point.getX(), point.getY());
+                }
+                return true;
+            });
+            cachedVariants += variants.size();
+            return variants.isEmpty();
+        });
+        for (StatementRegion region : statements) {
+            if (region.compiled != null) region.compiled.used = false;
+        }
+    }
+
+    // Index of the statement whose region contains offset
+    private int statementAt(int offset) {
+        int low = 0;
+        int high = statements.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (statements.get(mid).start <= offset) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    // Splits text[from, to) at ';' words, the same separators the parser accepts
+    private static List<StatementRegion> split(CharSequence text, int from, int to) {
+        List<StatementRegion> regions = new ArrayList<>();
+        int start = from;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == ';'
+                    && (i == 0 || LexicalAnalyser.isWhitespace(text.charAt(i - 1)))
+                    && (i + 1 == text.length() || LexicalAnalyser.isWhitespace(text.charAt(i + 1)))) {
+                regions.add(new StatementRegion(text, start, i));
+                start = i + 1;
+            }
+        }
+        regions.add(new StatementRegion(text, start, to));
+        return regions;
+    }
+
+    private static final class StatementRegion {
+        static final Comparator<StatementRegion> ORDER = Comparator.comparingLong(region -> region.order);
+
+        int start;
+        int end;
+        // Increases along the script; renumbering keeps the sets sorted by it valid
+        long order;
+        final String text;
+        CompiledStatement compiled;
+
+        StatementRegion(CharSequence source, int start, int end) {
+            this.start = start;
+            this.end = end;
+            int trimStart = start;
+            int trimEnd = end;
+            while (trimStart < trimEnd && LexicalAnalyser.isWhitespace(source.charAt(trimStart))) trimStart++;
+            while (trimEnd > trimStart && LexicalAnalyser.isWhitespace(source.charAt(trimEnd - 1))) trimEnd--;
+            this.text = source.subSequence(trimStart, trimEnd).toString();
+        }
+    }
+
+    private static final class CompiledStatement {
+        Node operation;
+        SceneStore scene;
+        // Numbered 0; collect() gives them the statement's index
+        Diagnostic[] diagnostics;
+        String error;
+        String[] readNames;
+        PointRef[] readValues;
+        String[] placedReads;
+        boolean[] placedAnswers;
+        // Point name pairs, with one answer per pair
+        String[] lineReads;
+        boolean[] lineAnswers;
+        String[] writeNames;
+        PointRef[] writeValues;
+        String[] placedWrites;
+        String[] lineWrites;
+        String[] graphWrites;
+        // Points whose allocator cells this compile holds, given back when it is evicted
+        PointRef[] reserved;
+        boolean used;
+
+        PointRef written(String name) {
+            for (int i = 0; i < writeNames.length; i++) {
+                if (writeNames[i].equals(name)) return writeValues[i];
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One kind of fact statements define and read, such as point values, by
+     * name: the statements that define each name and the ones that read it,
+     * both in script order.
+     */
+    private static final class Facts {
+        // Which definitions a reader's answer depends on
+        enum Answer {
+            NEAREST,
+            FIRST,
+            ANY
+        }
+
+        final Answer answer;
+        final Map<String, TreeSet<StatementRegion>> writers = new HashMap<>();
+        final Map<String, TreeSet<StatementRegion>> readers = new HashMap<>();
+
+        Facts(Answer answer) {
+            this.answer = answer;
+        }
+
+        StatementRegion nearestBefore(String name, StatementRegion region) {
+            TreeSet<StatementRegion> set = writers.get(name);
+            return set == null ? null : set.lower(region);
+        }
+
+        NavigableSet<StatementRegion> writersBefore(String name, StatementRegion region) {
+            TreeSet<StatementRegion> set = writers.get(name);
+            return set == null ? Collections.emptyNavigableSet() : set.headSet(region, false);
+        }
+
+        void addReader(String name, StatementRegion region) {
+            readers.computeIfAbsent(name, k -> new TreeSet<>(StatementRegion.ORDER)).add(region);
+        }
+
+        void removeReader(String name, StatementRegion region) {
+            TreeSet<StatementRegion> set = readers.get(name);
+            if (set == null) return;
+            set.remove(region);
+            if (set.isEmpty()) readers.remove(name);
+        }
+
+        void addWriter(String name, StatementRegion region, Set<StatementRegion> queue) {
+            TreeSet<StatementRegion> set = writers.computeIfAbsent(name, k -> new TreeSet<>(StatementRegion.ORDER));
+            StatementRegion first = set.isEmpty() ? null : set.first();
+            set.add(region);
+            changed(name, set, region, first, queue);
+        }
+
+        void removeWriter(String name, StatementRegion region, Set<StatementRegion> queue) {
+            TreeSet<StatementRegion> set = writers.get(name);
+            if (set == null) return;
+            StatementRegion first = set.first();
+            set.remove(region);
+            changed(name, set, region, first, queue);
+            if (set.isEmpty()) writers.remove(name);
+        }
+
+        // Queues the readers of name whose answer may differ now that region defines it or no longer does
+        private void changed(String name, TreeSet<StatementRegion> set, StatementRegion region,
+                             StatementRegion oldFirst, Set<StatementRegion> queue) {
+            TreeSet<StatementRegion> readerSet = readers.get(name);
+            if (readerSet == null) return;
+            StatementRegion from = region;
+            StatementRegion to;
+            switch (answer) {
+                case NEAREST -> to = set.higher(region);
+                case FIRST -> {
+                    StatementRegion newFirst = set.isEmpty() ? null : set.first();
+                    if (newFirst == oldFirst) return;
+                    // Readers between the old and the new first definition see the other answer
+                    if (oldFirst == null || newFirst != null && StatementRegion.ORDER.compare(newFirst, oldFirst) < 0) {
+                        from = newFirst;
+                        to = oldFirst;
+                    } else {
+                        from = oldFirst;
+                        to = newFirst;
+                    }
+                }
+                default -> to = null;
+            }
+            queue.addAll(to == null ? readerSet.tailSet(from, false) : readerSet.subSet(from, false, to, true));
+        }
+    }
+
+    /**
+     * Symbol table seen by one statement: its own definitions, falling back to
+     * what the statements before it defined. Every fallback lookup is recorded
+     * as a read, and every definition as a write. The Parser and its fused
+     * SemanticAnalyzer only reach the table through the methods overridden here.
+     */
+    private final class StatementScope extends SymbolTable {
+        private final StatementRegion region;
+        final Map<String, PointRef> reads = new HashMap<>();
+        final Map<String, Boolean> placedReads = new HashMap<>();
+        final List<String> lineReads = new ArrayList<>();
+        final List<Boolean> lineAnswers = new ArrayList<>();
+        final Set<String> placedWrites = new LinkedHashSet<>();
+        final Set<String> lineWrites = new LinkedHashSet<>();
+        final Set<String> graphWrites = new LinkedHashSet<>();
+
+        StatementScope(StatementRegion region) {
+            this.region = region;
+        }
+
+        @Override
+        public PointRef getPoint(String name) {
+            PointRef own = getOwn(name);
+            if (own != null) return own;
+            PointRef value = pointBefore(name, region);
+            reads.put(name, value);
+            return value;
+        }
+
+        PointRef getOwn(String name) {
+            return getPoints().get(name);
+        }
+
+        @Override
+        public boolean placePoint(String name) {
+            if (!super.placePoint(name)) return false;
+            placedWrites.add(name);
+            boolean before = placedBefore(name, region);
+            placedReads.put(name, before);
+            return !before;
+        }
+
+        @Override
+        public void defineLine(String a, String b) {
+            super.defineLine(a, b);
+            lineWrites.add(a + b);
+        }
+
+        @Override
+        public void defineCompleteGraph(List<PointRef> points) {
+            super.defineCompleteGraph(points);
+            for (PointRef point : points) {
+                graphWrites.add(point.getName());
+            }
+        }
+
+        @Override
+        public boolean hasLine(String a, String b) {
+            if (super.hasLine(a, b)) return true;
+            boolean answer = lineBefore(a, b, region);
+            lineReads.add(a);
+            lineReads.add(b);
+            lineAnswers.add(answer);
+            return answer;
+        }
+    }
+}
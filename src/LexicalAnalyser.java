@@ -1,4 +1,10 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.regex.Matcher;
@@ -8,11 +14,15 @@ import java.util.regex.Pattern;
 
 class Lexeme {
     private String lexeme;
-    private String type;
+    private TokenKind kind;
 
     public Lexeme(String lexeme, String type) {
+        this(lexeme, TokenKind.valueOf(type));
+    }
+
+    public Lexeme(String lexeme, TokenKind kind) {
         this.lexeme = lexeme;
-        this.type = type;
+        this.kind = kind;
     }
 
     public String getLexeme() {
@@ -20,7 +30,11 @@ class Lexeme {
     }
 
     public String getType() {
-        return type;
+        return kind.name();
+    }
+
+    public TokenKind getKind() {
+        return kind;
     }
 }
 
@@ -57,7 +71,69 @@ public class LexicalAnalyser {
 
     }
 
+    // Set -Dlexer.engine=regex to fall back to the original per-word regex cascade
+    static final boolean USE_REGEX = "regex".equals(System.getProperty("lexer.engine"));
+
     public static ArrayList<Lexeme> analyse(String text) {
+        return USE_REGEX ? analyseRegex(text) : analyseScan(text);
+    }
+
+    // Single pass over the source: split on whitespace exactly like text.split("\\s+")
+    // and classify each word in place with hand-written recognizers instead of regex matchers.
+    // Lexemes are only materialized when the caller asks the buffer for them.
+    public static TokenBuffer tokenize(String text) {
+        PhaseEvent event = CompilerMetrics.begin(CompilerMetrics.Phase.LEX);
+        TokenBuffer buffer = scan(text);
+        CompilerMetrics.lexed(event, text.length(), buffer.size());
+        return buffer;
+    }
+
+    private static TokenBuffer scan(String text) {
+        TokenBuffer buffer = new TokenBuffer(text);
+        int length = text.length();
+        if (length == 0) {
+            buffer.add(TokenKind.ERROR, 0, 0);
+            return buffer;
+        }
+
+        boolean leadingWhitespace = isWhitespace(text.charAt(0));
+        int pos = 0;
+        while (pos < length) {
+            while (pos < length && isWhitespace(text.charAt(pos))) pos++;
+            if (pos == length) break;
+
+            int start = pos;
+            while (pos < length && !isWhitespace(text.charAt(pos))) pos++;
+
+            if (leadingWhitespace) {
+                // split() keeps an empty first word when the text starts with whitespace
+                buffer.add(TokenKind.ERROR, 0, 0);
+                leadingWhitespace = false;
+            }
+            buffer.add(classify(text, start, pos), start, pos);
+        }
+
+        return buffer;
+    }
+
+    // Closing the stream closes the reader
+    public static ReaderTokenStream stream(Reader reader) {
+        return new ReaderTokenStream(reader);
+    }
+
+    // Lexes a UTF-8 script straight from a memory-mapped file, which stays open until the stream is closed
+    public static ReaderTokenStream stream(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new ReaderTokenStream(new MappedFileReader(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static ArrayList<Lexeme> analyseRegex(String text) {
+        PhaseEvent event = CompilerMetrics.begin(CompilerMetrics.Phase.LEX);
         ArrayList<Lexeme> result = new ArrayList<>();
         String[] words = text.split("\\s+");
 
@@ -79,7 +155,191 @@ public class LexicalAnalyser {
             if (!matched) result.add(new Lexeme(word, "ERROR"));
         }
 
+        CompilerMetrics.lexed(event, text.length(), result.size());
+        return result;
+    }
+
+    // Words with a fixed spelling, in the same priority as the pattern table above
+    private static final KeywordTrie FIXED_WORDS = new KeywordTrie();
+
+    // GEOMETRY stems and the character range allowed after each one
+    private static final String[] GEOMETRY_STEMS = {
+            "ТОЧК", "ТРИКУТН", "ВІДРІЗ",
+            "точк", "трикутн", "відріз", "перпендикул", "сторон", "прям", "бісектр", "кут",
+            "квадрат"
+    };
+    private static final char[][] GEOMETRY_SUFFIX_RANGES = {
+            {'А', 'Я'}, {'А', 'Я'}, {'А', 'Я'},
+            {'а', 'я'}, {'а', 'я'}, {'а', 'я'}, {'а', 'я'}, {'а', 'я'}, {'а', 'я'}, {'а', 'я'}, {'а', 'я'},
+            {'a', 'z'}
+    };
+
+    static {
+        for (String sign : new String[]{"<=", ">=", "==", "<", ">", "!=", "&&", "||"}) {
+            FIXED_WORDS.put(sign, TokenKind.CONDITION_SIGN);
+        }
+        for (char c : "+-*/=%".toCharArray()) {
+            FIXED_WORDS.put(String.valueOf(c), TokenKind.ARITHMETIC_OPERATOR);
+        }
+        for (char c : "[](){}.,!?;:'\"\\".toCharArray()) {
+            FIXED_WORDS.put(String.valueOf(c), TokenKind.DELIMITER);
+        }
+        for (String function : new String[]{"sin", "cos", "tan", "log", "exp", "max", "min"}) {
+            FIXED_WORDS.put(function, TokenKind.BUILTIN_FUNCTION);
+        }
+        for (String word : new String[]{"if", "else", "while", "char", "double", "float", "String", "int", "void",
+                "false", "true", "null", "private", "public", "static", "return",
+                "ЗАДАНО", "ПОСТАВИТИ", "З'ЄДНАТИ", "ПРОВЕСТИ", "ПОБУДУВАТИ", "ЧЕРЕЗ", "ЗА", "ТА", "ДО",
+                "задано", "поставити", "зʼєднати", "провести", "побудувати", "через", "за", "та", "зі", "дві", "до"}) {
+            FIXED_WORDS.put(word, TokenKind.RESERVED_WORD);
+        }
+    }
+
+    public static ArrayList<Lexeme> analyseScan(String text) {
+        TokenBuffer buffer = tokenize(text);
+        ArrayList<Lexeme> result = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            result.add(buffer.get(i));
+        }
         return result;
     }
 
-}
\ No newline at end of file
+    static TokenKind classify(String word) {
+        return classify(word, 0, word.length());
+    }
+
+    // Classifies source[start, end) without copying it
+    static TokenKind classify(CharSequence source, int start, int end) {
+        TokenKind fixed = FIXED_WORDS.get(source, start, end);
+        if (fixed != null) return fixed;
+
+        if (start == end) return TokenKind.ERROR;
+
+        char first = source.charAt(start);
+        if (isDigit(first)) {
+            int pos = scanDigits(source, start, end);
+            if (pos == end) return TokenKind.INTEGER;
+            if (source.charAt(pos) == '.') {
+                int fractionEnd = scanDigits(source, pos + 1, end);
+                if (fractionEnd > pos + 1 && fractionEnd == end) return TokenKind.FLOAT;
+            }
+            return TokenKind.ERROR;
+        }
+        if (first == '(') {
+            return isCoordinates(source, start, end) ? TokenKind.COORDINATES : TokenKind.ERROR;
+        }
+        if (isGeometry(source, start, end)) return TokenKind.GEOMETRY;
+        if (isNameStart(first)) {
+            for (int i = start + 1; i < end; i++) {
+                char c = source.charAt(i);
+                if (!isNameStart(c) && !isDigit(c)) return TokenKind.ERROR;
+            }
+            return TokenKind.NAME;
+        }
+        return TokenKind.ERROR;
+    }
+
+    // (-?D(.D)?,-?D(.D)?) where D is one or more ASCII digits
+    private static boolean isCoordinates(CharSequence source, int start, int end) {
+        int pos = scanNumber(source, start + 1, end);
+        if (pos < 0 || pos >= end || source.charAt(pos) != ',') return false;
+        pos = scanNumber(source, pos + 1, end);
+        return pos == end - 1 && source.charAt(pos) == ')';
+    }
+
+    private static int scanNumber(CharSequence source, int pos, int end) {
+        if (pos < end && source.charAt(pos) == '-') pos++;
+        int digitsEnd = scanDigits(source, pos, end);
+        if (digitsEnd == pos) return -1;
+        if (digitsEnd < end && source.charAt(digitsEnd) == '.') {
+            int fractionEnd = scanDigits(source, digitsEnd + 1, end);
+            if (fractionEnd == digitsEnd + 1) return -1;
+            digitsEnd = fractionEnd;
+        }
+        return digitsEnd;
+    }
+
+    private static int scanDigits(CharSequence source, int pos, int end) {
+        while (pos < end && isDigit(source.charAt(pos))) pos++;
+        return pos;
+    }
+
+    private static boolean isGeometry(CharSequence source, int start, int end) {
+        for (int i = 0; i < GEOMETRY_STEMS.length; i++) {
+            String stem = GEOMETRY_STEMS[i];
+            if (!regionStartsWith(source, start, end, stem)) continue;
+            char low = GEOMETRY_SUFFIX_RANGES[i][0];
+            char high = GEOMETRY_SUFFIX_RANGES[i][1];
+            int j = start + stem.length();
+            while (j < end && source.charAt(j) >= low && source.charAt(j) <= high) j++;
+            if (j == end) return true;
+        }
+        return false;
+    }
+
+    static boolean regionStartsWith(CharSequence source, int start, int end, String prefix) {
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (source.charAt(start + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'А' && c <= 'я') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+}
+
+/**
+ * Character trie over the fixed-spelling words, so a word can be looked up
+ * straight from the source buffer without creating a substring.
+ */
+class KeywordTrie {
+    private char[] keys = new char[0];
+    private KeywordTrie[] children = new KeywordTrie[0];
+    private TokenKind kind;
+
+    public void put(String word, TokenKind kind) {
+        KeywordTrie node = this;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.childOrCreate(word.charAt(i));
+        }
+        node.kind = kind;
+    }
+
+    public TokenKind get(CharSequence source, int start, int end) {
+        KeywordTrie node = this;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(source.charAt(i));
+        }
+        return node == null ? null : node.kind;
+    }
+
+    private KeywordTrie child(char c) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == c) return children[i];
+        }
+        return null;
+    }
+
+    private KeywordTrie childOrCreate(char c) {
+        KeywordTrie child = child(c);
+        if (child == null) {
+            child = new KeywordTrie();
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = c;
+            children[children.length - 1] = child;
+        }
+        return child;
+    }
+}
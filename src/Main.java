@@ -1,5 +1,6 @@
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.List;
 /**
  * <текст> ::= <операція> <наступні операції>
  * <наступні операції>::= ; <текст> | <пусто>
@@ -25,7 +26,20 @@ import java.util.ArrayList;
  */
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchCompiler.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            SceneExporter.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--view")) {
+            view(SceneFile.map(java.nio.file.Path.of(args[1])), args[1]);
+            return;
+        }
+
         LexicalAnalyser analyser = new LexicalAnalyser();
         int sentenceNumber = 12;
 
@@ -54,7 +68,9 @@ public class Main {
         }
 
         Parser parser = new Parser(lexemes);
+        parser.enableDependencyTracking();
         Node programNode = parser.parse();
+        parser.printTree(programNode);
 
 
 
@@ -65,16 +81,24 @@ public class Main {
 
         parser.saveCodeToFile();
 
-        JFrame frame = new JFrame("Geometry Drawer Main");
-        ArrayList<Geometry> geometries = parser.geometries;
+        view(parser.getGeometries(), "Geometry Drawer Main", parser.getConstructions());
+    }
+
+    // Opens a window on the scene; a mapped .scene file is drawn straight from the file
+    static void view(List<Geometry> geometries, String title) {
+        view(geometries, title, null);
+    }
+
+    // With the scene's construction graph, points can be dragged in the window
+    static void view(List<Geometry> geometries, String title, ConstructionGraph constructions) {
+        JFrame frame = new JFrame(title);
         DrawingPanel drawingPanel = new DrawingPanel(geometries);
+        drawingPanel.setConstructions(constructions);
         frame.add(drawingPanel);
         frame.setSize(800, 600);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLocationRelativeTo(null);
-        frame.setResizable(false);
         frame.setVisible(true);
-
     }
 
 }
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.List;
+
+class Node {
+    private String type;
+    private List<Node> children;
+
+    public Node(String type) {
+        this.type = type;
+        this.children = new ArrayList<>();
+    }
+
+    public void addChild(Node child) {
+        children.add(child);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public List<Node> getChildren() {
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getType());
+        if (!children.isEmpty()) {
+            builder.append(": ");
+            for (Node child : children) {
+                builder.append(child.toString()).append(" ");
+            }
+        }
+        return builder.toString();
+    }
+}
+
+/**
+ * Root of the tree: the operations of the script in order, as one flat list.
+ */
+class ProgramNode extends Node {
+    public ProgramNode() {
+        super("Program");
+    }
+
+    public List<Node> getOperations() {
+        return getChildren();
+    }
+}
+
+/**
+ * A named point with its resolved grid coordinates.
+ * The label is only formatted when the tree is printed.
+ */
+class PointRef extends Node {
+    // parseInt's result for a number that is not a valid coordinate
+    private static final long INVALID = Long.MIN_VALUE;
+
+    private final String name;
+    private final int x;
+    private final int y;
+
+    public PointRef(String name, int x, int y) {
+        super(null);
+        this.name = name;
+        this.x = x;
+        this.y = y;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public String getType() {
+        return name + " (" + x + "," + y + ")";
+    }
+
+    // Parses a COORDINATES lexeme such as "(3,-4)" without regex or split; null for
+    // fractional coordinates or ones outside the int range
+    static int[] parseCoordinates(String text) {
+        int comma = text.indexOf(',');
+        long x = parseInt(text, 1, comma);
+        long y = parseInt(text, comma + 1, text.length() - 1);
+        if (x == INVALID || y == INVALID) return null;
+        return new int[]{(int) x, (int) y};
+    }
+
+    private static long parseInt(String text, int start, int end) {
+        boolean negative = text.charAt(start) == '-';
+        // Integer.MIN_VALUE has no positive counterpart, so the magnitude is kept in a long
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') return INVALID;
+            value = value * 10 + (c - '0');
+            if (value > limit) return INVALID;
+        }
+        return negative ? -value : value;
+    }
+}
+
+class PutPointNode extends Node {
+    private final PointRef point;
+
+    public PutPointNode(PointRef point) {
+        super("PutPoint");
+        this.point = point;
+        addChild(point);
+    }
+
+    public PointRef getPoint() {
+        return point;
+    }
+}
+
+class DrawSegmentNode extends Node {
+    private final PointRef a;
+    private final PointRef b;
+
+    public DrawSegmentNode(PointRef a, PointRef b) {
+        super("DrawSegment");
+        this.a = a;
+        this.b = b;
+        addChild(a);
+        addChild(b);
+    }
+
+    public PointRef getA() {
+        return a;
+    }
+
+    public PointRef getB() {
+        return b;
+    }
+}
+
+class BuildTriangleNode extends Node {
+    private final PointRef a;
+    private final PointRef b;
+    private final PointRef c;
+
+    public BuildTriangleNode(PointRef a, PointRef b, PointRef c) {
+        super("BuildTriangle");
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        addChild(a);
+        addChild(b);
+        addChild(c);
+    }
+
+    public PointRef getA() {
+        return a;
+    }
+
+    public PointRef getB() {
+        return b;
+    }
+
+    public PointRef getC() {
+        return c;
+    }
+}
+
+/**
+ * Square on side AB; C and D are the derived corners next to A and B.
+ * Its edges are AB, CD, AC and BD.
+ */
+class BuildSquareNode extends Node {
+    private final PointRef a;
+    private final PointRef b;
+    private final PointRef c;
+    private final PointRef d;
+
+    public BuildSquareNode(PointRef a, PointRef b, PointRef c, PointRef d) {
+        super("BuildSquare");
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        addChild(a);
+        addChild(b);
+        addChild(c);
+        addChild(d);
+    }
+
+    public PointRef getA() {
+        return a;
+    }
+
+    public PointRef getB() {
+        return b;
+    }
+
+    public PointRef getC() {
+        return c;
+    }
+
+    public PointRef getD() {
+        return d;
+    }
+}
+
+/**
+ * Connects every pair of the listed points.
+ */
+class ConnectPointsNode extends Node {
+    private final List<PointRef> points;
+
+    public ConnectPointsNode(List<PointRef> points) {
+        super("ConnectPoints");
+        this.points = points;
+        for (PointRef point : points) {
+            addChild(point);
+        }
+    }
+
+    public List<PointRef> getPoints() {
+        return points;
+    }
+}
+
+/**
+ * Perpendicular through the midpoint of AB, drawn from C1 to C2.
+ */
+class DrawPerpendicularNode extends Node {
+    private final PointRef a;
+    private final PointRef b;
+    private final PointRef c1;
+    private final PointRef c2;
+
+    public DrawPerpendicularNode(PointRef a, PointRef b, PointRef c1, PointRef c2) {
+        super("DrawPerpendicular");
+        this.a = a;
+        this.b = b;
+        this.c1 = c1;
+        this.c2 = c2;
+        addChild(a);
+        addChild(b);
+        addChild(c1);
+        addChild(c2);
+    }
+
+    public PointRef getA() {
+        return a;
+    }
+
+    public PointRef getB() {
+        return b;
+    }
+
+    public PointRef getC1() {
+        return c1;
+    }
+
+    public PointRef getC2() {
+        return c2;
+    }
+}
@@ -1,107 +1,186 @@
-
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-class Node {
-    private String type;
-    private List<Node> children;
+class Parser {
+    // Distance from the midpoint to each end of a drawn perpendicular
+    static final int PERPENDICULAR_LENGTH = 20;
+
+    private final TokenStream tokens;
+    private final SymbolTable symbols;
+    private final CoordinateAllocator coordinateAllocator;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private final List<PointRef> reservedPoints = new ArrayList<>();
+    private SemanticAnalyzer checker;
+    private ConstructionGraph constructions;
+    private boolean recovering;
+    // Index of the statement being parsed, counting ones dropped after a syntax error
+    private int statement;
+    // Whether the last statement was dropped with its error already recorded
+    private boolean diagnosedStatement;
+    // Corners computed by GeometryKernel for the construction being parsed
+    private final double[] construction = new double[4];
+
+    public String generateCode() {
+        return new CodeGenerator().generate(getGeometries());
+    }
 
-    public Node(String type) {
-        this.type = type;
-        this.children = new ArrayList<>();
+    public void saveCodeToFile() {
+        saveCodeToFile(Path.of("src", "Code.java"));
     }
 
-    public void addChild(Node child) {
-        children.add(child);
+    public void saveCodeToFile(Path file) {
+        try {
+            new CodeGenerator().generate(getGeometries(), file);
+        } catch (IOException e) {
+            System.out.println("Error writing code to file: " + e.getMessage());
+        }
     }
 
-    public String getType() {
-        return type;
+    // The scene in SceneFile's binary format, for viewing without a compile step
+    public void saveSceneToFile(Path file) {
+        try {
+            SceneFile.write(scene, file);
+        } catch (IOException e) {
+            System.out.println("Error writing scene to file: " + e.getMessage());
+        }
     }
 
-    public List<Node> getChildren() {
-        return children;
+    public Parser(List<Lexeme> tokens) {
+        this(new ListTokenStream(tokens));
     }
 
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder(type);
-        if (!children.isEmpty()) {
-            builder.append(": ");
-            for (Node child : children) {
-                builder.append(child.toString()).append(" ");
-            }
-        }
-        return builder.toString();
+    public Parser(TokenStream tokens) {
+        this(tokens, new CoordinateAllocator());
     }
-}
 
-class Parser {
-    private List<Lexeme> tokens;
-    private int currentTokenIndex;
-    public Map<String, String> pointCoordinates; // Memory for storing coordinates
-    private String graphicCode = "import javax.swing.*;\n" +
-            "import java.util.ArrayList;\n"+
-            "public class Code {\n" +
-            "    public static void main(String[] args) {" +
-            "       JFrame frame = new JFrame(\"Geometry Drawer\");\n" +
-            "       ArrayList<Geometry> geometries = new ArrayList<>();\n";
-
-
-    public String generateCode(){
-        return graphicCode += "       DrawingPanel drawingPanel = new DrawingPanel(geometries);\n" +
-                "       frame.add(drawingPanel);\n" +
-                "       frame.setSize(800, 600);\n" +
-                "       frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);\n" +
-                "       frame.setLocationRelativeTo(null);\n" +
-                "       frame.setResizable(false);\n" +
-                "       frame.setVisible(true);\n" +
-                "    }\n" +
-                "}\n";
+    public Parser(TokenStream tokens, CoordinateAllocator coordinateAllocator) {
+        this(tokens, coordinateAllocator, new HashMap<>());
     }
 
-    public void saveCodeToFile() {
-        try (FileWriter writer = new FileWriter("src/Code.java")) {
-            writer.write(generateCode());
-        } catch (IOException e) {
-            System.out.println("Error writing code to file: " + e.getMessage());
-        }
+    // Lets a caller carry the symbol table from one parse into the next
+    public Parser(TokenStream tokens, CoordinateAllocator coordinateAllocator, Map<String, PointRef> pointCoordinates) {
+        this(tokens, coordinateAllocator, new SymbolTable(pointCoordinates));
+    }
+
+    public Parser(TokenStream tokens, CoordinateAllocator coordinateAllocator, SymbolTable symbols) {
+        this(tokens, coordinateAllocator, symbols, new SceneStore());
+    }
+
+    // Pass new SceneStore(true) to keep the shapes outside the heap
+    public Parser(TokenStream tokens, CoordinateAllocator coordinateAllocator, SymbolTable symbols, SceneStore scene) {
+        this.tokens = tokens;
+        this.coordinateAllocator = coordinateAllocator;
+        this.symbols = symbols;
+        this.scene = scene;
     }
 
+    /**
+     * Checks every operation against the parser's symbol table as soon as it is
+     * parsed, instead of in a second pass with SemanticAnalyzer.
+     */
+    public void enableSemanticChecks() {
+        checker = new SemanticAnalyzer(symbols, diagnostics, false);
+    }
 
+    /**
+     * Records syntax errors as diagnostics instead of throwing. A statement
+     * with an error is dropped from the tree, though points it defined before
+     * the error stay defined, and parsing goes on after the next ";", so one
+     * pass reports every error in the script.
+     */
+    public void enableErrorRecovery() {
+        recovering = true;
+    }
 
+    /**
+     * Records in a ConstructionGraph which shapes each point was used for, so
+     * points can be moved afterwards without parsing again.
+     */
+    public void enableDependencyTracking() {
+        constructions = new ConstructionGraph(scene);
+    }
 
-    public Parser(List<Lexeme> tokens) {
-        this.tokens = tokens;
-        this.currentTokenIndex = 0;
-        this.pointCoordinates = new HashMap<>();
+    // Null unless dependency tracking is enabled
+    public ConstructionGraph getConstructions() {
+        return constructions;
+    }
+
+    // Errors found while parsing, in script order; empty unless semantic checks or error recovery are enabled
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
     }
 
     private Lexeme currentToken() {
-        if (currentTokenIndex < tokens.size()) {
-            return tokens.get(currentTokenIndex);
+        return tokens.peek();
+    }
+
+    private boolean hasMoreTokens() {
+        return tokens.peek() != null;
+    }
+
+    private String currentText() {
+        return currentToken() != null ? currentToken().getLexeme() : "EOF";
+    }
+
+    // False after recording the error when recovering
+    private boolean consume(TokenKind expectedType) {
+        if (tokens.peekKind() == expectedType) {
+            tokens.skip();
+            return true;
+        }
+        if (!recovering) {
+            throw new RuntimeException("Unexpected token: " + currentText() + ", expected: " + expectedType);
         }
+        syntaxError(Diagnostic.Kind.UNEXPECTED_TOKEN, currentText(), expectedType);
+        return false;
+    }
+
+    // Null after recording the error when recovering
+    private String consumeAndGet(TokenKind expectedType) {
+        if (tokens.peekKind() == expectedType) {
+            return tokens.nextText();
+        }
+        if (!recovering) {
+            throw new RuntimeException("Expected " + expectedType + " but found: " + currentText());
+        }
+        syntaxError(Diagnostic.Kind.UNEXPECTED_TOKEN, currentText(), expectedType);
         return null;
     }
 
-    private void consume(String expectedType) {
-        if (currentTokenIndex < tokens.size() && currentToken().getType().equals(expectedType)) {
-            currentTokenIndex++;
-        } else {
-            throw new RuntimeException("Unexpected token: " + (currentToken() != null ? currentToken().getLexeme() : "EOF") + ", expected: " + expectedType);
+    private void syntaxError(Diagnostic.Kind kind, String subject, TokenKind expected) {
+        diagnostics.add(new Diagnostic(kind, statement, subject, expected));
+    }
+
+    // Null after recording the error when recovering
+    private int[] parseCoordinates(String coordinates) {
+        int[] xy = PointRef.parseCoordinates(coordinates);
+        if (xy != null) return xy;
+        if (!recovering) {
+            throw new RuntimeException("Coordinates " + coordinates + " must be whole numbers within the int range");
         }
+        syntaxError(Diagnostic.Kind.BAD_COORDINATES, coordinates, null);
+        return null;
     }
 
-    private Lexeme consumeAndGet(String expectedType) {
-        if (currentTokenIndex < tokens.size() && currentToken().getType().equals(expectedType)) {
-            return tokens.get(currentTokenIndex++);
-        } else {
-            throw new RuntimeException("Expected " + expectedType + " but found: " + (currentToken() != null ? currentToken().getLexeme() : "EOF"));
+    // A line is named by its two one-letter points, as in "AB"
+    private boolean checkLineName(String lineName) {
+        if (lineName.length() >= 2) return true;
+        if (!recovering) {
+            throw new RuntimeException("Line name " + lineName + " must name two points");
         }
+        syntaxError(Diagnostic.Kind.BAD_LINE_NAME, lineName, null);
+        return false;
+    }
+
+    public void printTree(Node node) {
+        printTree(node, "", true);
     }
 
     private void printTree(Node node, String indent, boolean last) {
@@ -113,435 +192,453 @@ class Parser {
         }
     }
 
-    public Node parse() {
-        Node programNode = new Node("Program");
-        Node textNode = parseText();
-        programNode.addChild(textNode);
-
-        printTree(programNode, "", true);
+    public ProgramNode parse() {
+        PhaseEvent event = CompilerMetrics.begin(CompilerMetrics.Phase.PARSE);
+        ProgramNode programNode = new ProgramNode();
+        parseText(programNode);
+        scene.compact();
+        CompilerMetrics.parsed(event, programNode.getOperations().size(), scene.size());
         return programNode;
     }
 
-    private Node parseText() {
-        Node textNode = new Node("Operation");
-        Node operationNode = parseOperation();
-        textNode.addChild(operationNode);
-
-        if (currentTokenIndex < tokens.size() && currentToken().getLexeme().equals(";")) {
-            consume("DELIMITER"); // consume ';'
-            if (currentTokenIndex < tokens.size()) {
-                textNode.addChild(parseText());
+    // <текст> is parsed as a loop rather than by recursion on <наступні операції>,
+    // so long scripts neither grow the stack nor produce a deep tree.
+    private void parseText(ProgramNode programNode) {
+        statement = 0;
+        addOperation(programNode, parseOperation());
+
+        while (true) {
+            if (recovering && hasMoreTokens() && !tokens.peekIs(";")) {
+                // Trailing tokens after a statement, or the rest of one with an error
+                if (!diagnosedStatement) {
+                    syntaxError(Diagnostic.Kind.UNEXPECTED_TOKEN, currentText(), TokenKind.DELIMITER);
+                }
+                while (hasMoreTokens() && !tokens.peekIs(";")) {
+                    tokens.skip();
+                }
+            }
+            if (!tokens.peekIs(";")) {
+                break;
             }
+            consume(TokenKind.DELIMITER); // consume ';'
+            if (!hasMoreTokens()) {
+                break;
+            }
+            statement++;
+            addOperation(programNode, parseOperation());
         }
+    }
 
-        return textNode;
+    // Null operations are statements dropped after a syntax error
+    private void addOperation(ProgramNode programNode, Node operation) {
+        diagnosedStatement = operation == null;
+        if (operation == null) return;
+        if (checker != null) {
+            checker.check(operation, statement);
+        }
+        programNode.addChild(operation);
     }
 
 
+    // Null when recovering from a syntax error
     private Node parseOperation() {
-        if (currentTokenIndex < tokens.size() && currentToken().getType().equals("RESERVED_WORD")) {
-            String operation = currentToken().getLexeme();
-            if (operation.startsWith("поставити")) {
+        if (tokens.peekKind() == TokenKind.RESERVED_WORD) {
+            if (tokens.peekStartsWith("поставити")) {
                 return handlePutPoint();
-            } else if (operation.startsWith("зʼєднати")) {
+            } else if (tokens.peekStartsWith("зʼєднати")) {
                 return handleConnectPoints();
-            } else if (operation.startsWith("провести")) {
-                consume("RESERVED_WORD"); // consume "провести"
-                if (currentToken().getLexeme().equals("пряму")) {
+            } else if (tokens.peekStartsWith("провести")) {
+                if (!consume(TokenKind.RESERVED_WORD)) return null; // consume "провести"
+                if (tokens.peekIs("пряму")) {
                     return handleDrawPerpendicular();
                 } else {
                     return handleDrawSegment();
                 }
-            } else if (operation.startsWith("побудувати")) {
-                consume("RESERVED_WORD"); // "побудувати"
-                if (currentToken().getLexeme().equals("трикутник")) {
+            } else if (tokens.peekStartsWith("побудувати")) {
+                if (!consume(TokenKind.RESERVED_WORD)) return null; // "побудувати"
+                if (tokens.peekIs("трикутник")) {
                     return handleBuildTriangle();
-                } else if (currentToken().getLexeme().equals("квадрат")) {
+                } else if (tokens.peekIs("квадрат")) {
                     return handleBuildSquare();
                 }
             }
         }
-        throw new RuntimeException("Unknown operation: " + currentToken().getLexeme());
+        if (!recovering) {
+            throw new RuntimeException("Unknown operation: " + currentText());
+        }
+        syntaxError(Diagnostic.Kind.UNKNOWN_OPERATION, currentText(), null);
+        return null;
     }
 
 
-    public ArrayList<Geometry> geometries = new ArrayList<>();
+    private final SceneStore scene;
 
-    private Node handlePutPoint() {
-        consume("RESERVED_WORD"); // "поставити"
-        consume("GEOMETRY"); // "точку"
-        String pointName = consumeAndGet("NAME").getLexeme(); // <назва>
-
-        String coordinates = getCoords(pointName);
-
-        // Store the point name and coordinates in memory
-        pointCoordinates.put(pointName, coordinates);
-
-        Node putPointNode = new Node("PutPoint");
-        putPointNode.addChild(new Node(pointName));
-        putPointNode.addChild(new Node(coordinates));
+    // Every distinct shape once, however many operations produced it
+    public List<Geometry> getGeometries() {
+        return scene;
+    }
 
-        String[] coords = coordinates.replaceAll("[()]", "").split(",");
-        int x = Integer.parseInt(coords[0].trim());
-        int y = Integer.parseInt(coords[1].trim());
-        geometries.add(new PointGeometry(pointName, x, y));
+    public SceneStore getScene() {
+        return scene;
+    }
 
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointName+"\","+ x+","+ y+"));\n";
+    public Map<String, PointRef> getPointCoordinates() {
+        return symbols.getPoints();
+    }
 
-        return putPointNode;
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
-    private String generateUniqueCoordinates() {
-        int x, y;
-        String coordinates;
-        do {
-            x = (int) (Math.random() * 4);
-            y = (int) (Math.random() * 6);
-            coordinates = "(" + x + "," + y + ")";
-        } while (pointCoordinates.containsValue(coordinates));
-        return coordinates;
+    // Points this parse occupied cells of the CoordinateAllocator for, once each, whether
+    // given with coordinates or placed by it; releasing them all undoes the parse's occupations
+    public List<PointRef> getReservedPoints() {
+        return reservedPoints;
     }
 
-    private Node handleConnectPoints() {
-        consume("RESERVED_WORD"); // "зʼєднати"
-        consume("GEOMETRY"); // "точки"
+    private Node handlePutPoint() {
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "поставити"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "точку"
+        String pointName = consumeAndGet(TokenKind.NAME); // <назва>
+        if (pointName == null) return null;
+
+        PointRef point = getCoords(pointName);
+        if (point == null) return null;
+
+        int x = point.getX();
+        int y = point.getY();
+        int marker = scene.addPoint(pointName, x, y);
+        if (constructions != null) {
+            constructions.marker(constructions.point(point), marker);
+        }
 
-        Node listOfPointsNode = parseListOfPoints(); // <список точок>
-        Node connectPointsNode = new Node("ConnectPoints");
 
-        List<String> pointNames = new ArrayList<>();
-        List<String> pointCoordinatesList = new ArrayList<>();
+        return new PutPointNode(point);
+    }
 
-        // First pass: Store point names and coordinates
-        for (Node pointNode : listOfPointsNode.getChildren()) {
-            String[] parts = pointNode.toString().split(" ");
-            String pointName = parts[0];
-            String coordinates = getCoords(pointName);
+    private PointRef generateUniqueCoordinates(String pointName) {
+        int[] xy = coordinateAllocator.allocate();
+        PointRef point = new PointRef(pointName, xy[0], xy[1]);
+        reservedPoints.add(point);
+        return point;
+    }
 
-            // Store names and coordinates for segment drawing
-            pointNames.add(pointName);
-            pointCoordinatesList.add(coordinates);
+    // Records a point given with coordinates and keeps its cell out of the allocator's free list
+    private void definePoint(PointRef point) {
+        coordinateAllocator.markOccupied(point.getX(), point.getY());
+        reservedPoints.add(point);
+        recordPoint(point);
+    }
 
-            // Create a node for putting the point
-            Node putPointNode = new Node("PutPoint");
-            putPointNode.addChild(new Node(pointName));
-            putPointNode.addChild(new Node(coordinates));
-            connectPointsNode.addChild(putPointNode);
+    private void recordPoint(PointRef point) {
+        symbols.definePoint(point);
+        if (constructions != null) {
+            constructions.point(point);
+        }
+    }
 
-            String[] coords = coordinates.replaceAll("[()]", "").split(",");
-            int x = Integer.parseInt(coords[0].trim());
-            int y = Integer.parseInt(coords[1].trim());
+    private Node handleConnectPoints() {
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "зʼєднати"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "точки"
 
-            geometries.add(new PointGeometry(pointName, x, y));
-            graphicCode += "       geometries.add(new PointGeometry(\""+pointName+"\","+ x+","+ y+"));\n";
+        List<String> pointNames = parseListOfPoints(); // <список точок>
+        if (pointNames == null) return null;
 
+        // A name listed twice resolves to its last coordinates
+        List<PointRef> points = new ArrayList<>(pointNames.size());
+        for (String pointName : pointNames) {
+            PointRef point = symbols.getPoint(pointName);
+            points.add(point);
+
+            int marker = scene.addPoint(pointName, point.getX(), point.getY());
+            if (constructions != null) {
+                constructions.marker(constructions.point(point), marker);
+            }
         }
 
-        // Second pass: Draw segments between unique pairs of points
-        for (int i = 0; i < pointNames.size(); i++) {
-            for (int j = i + 1; j < pointNames.size(); j++) { // Only connect unique pairs
-                String pointName1 = pointNames.get(i);
-                String pointName2 = pointNames.get(j);
-
-                // Get coordinates for the two points
-                String coordinates1 = pointCoordinates.get(pointName1);
-                String coordinates2 = pointCoordinates.get(pointName2);
-
-                // Parse coordinates into integers
-                String[] coords1 = coordinates1.replaceAll("[()]", "").split(",");
-                String[] coords2 = coordinates2.replaceAll("[()]", "").split(",");
-
-                int x1 = Integer.parseInt(coords1[0].trim());
-                int y1 = Integer.parseInt(coords1[1].trim());
-                int x2 = Integer.parseInt(coords2[0].trim());
-                int y2 = Integer.parseInt(coords2[1].trim());
-
-                // Create a node for drawing the segment
-                Node drawSegmentNode = new Node("DrawSegment");
-                drawSegmentNode.addChild(new Node(pointName1 + " " + coordinates1)); // First point
-                drawSegmentNode.addChild(new Node(pointName2 + " " + coordinates2)); // Second point
-
-                // Add the segment geometry
-                geometries.add(new SegmentGeometry(x1, y1, x2, y2)); // Add segment geometry
-                graphicCode += "       geometries.add(new SegmentGeometry("+x1+","+ y1+","+ x2+","+y2+"));\n";
-                connectPointsNode.addChild(drawSegmentNode); // Add to connect points node
+        // The segments between all pairs stay implicit in one shape; points sharing a
+        // position would only add zero-length edges, so each position is kept once
+        int[] xs = new int[points.size()];
+        int[] ys = new int[points.size()];
+        Set<Long> positions = new HashSet<>();
+        int vertices = 0;
+        for (PointRef point : points) {
+            if (positions.add(((long) point.getX() << 32) | (point.getY() & 0xffffffffL))) {
+                xs[vertices] = point.getX();
+                ys[vertices] = point.getY();
+                vertices++;
             }
         }
+        int shape = -1;
+        if (vertices == 2) {
+            shape = scene.addSegment(xs[0], ys[0], xs[1], ys[1]);
+        } else if (vertices > 2) {
+            shape = scene.addGraph(new CompleteGraphGeometry(Arrays.copyOf(xs, vertices), Arrays.copyOf(ys, vertices)));
+        }
+        if (constructions != null) {
+            int[] ids = new int[points.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = constructions.point(points.get(i));
+            constructions.connection(ids, shape);
+        }
 
-        return connectPointsNode;
+        return new ConnectPointsNode(points);
     }
 
 
     private Node handleDrawSegment() {
-        consume("GEOMETRY"); // "відрізок"
-        consume("RESERVED_WORD"); // "через"
-        consume("RESERVED_WORD"); // "дві"
-        consume("GEOMETRY"); // "точки"
-
-        String pointA = consumeAndGet("NAME").getLexeme(); // <точка> (пункт A)
-        String coordinatesA = getCoords(pointA);
+        if (!consume(TokenKind.GEOMETRY)) return null; // "відрізок"
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "через"
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "дві"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "точки"
 
-        consume("RESERVED_WORD"); // "та"; move to next token
+        String pointA = consumeAndGet(TokenKind.NAME); // <точка> (пункт A)
+        if (pointA == null) return null;
+        PointRef a = getCoords(pointA);
+        if (a == null) return null;
 
-        String pointB = consumeAndGet("NAME").getLexeme(); // <точка> (пункт B)
-        String coordinatesB = getCoords(pointB);
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "та"; move to next token
 
-        Node drawSegmentNode = new Node("DrawSegment");
-        drawSegmentNode.addChild(new Node(pointA + " " + coordinatesA)); // точка A
-        drawSegmentNode.addChild(new Node(pointB + " " + coordinatesB)); // точка B
+        String pointB = consumeAndGet(TokenKind.NAME); // <точка> (пункт B)
+        if (pointB == null) return null;
+        PointRef b = getCoords(pointB);
+        if (b == null) return null;
 
-        // Parse coordinates to integer values
-        String[] coordsA = coordinatesA.replaceAll("[()]", "").split(",");
-        String[] coordsB = coordinatesB.replaceAll("[()]", "").split(",");
-        int xA = Integer.parseInt(coordsA[0].trim());
-        int yA = Integer.parseInt(coordsA[1].trim());
-        int xB = Integer.parseInt(coordsB[0].trim());
-        int yB = Integer.parseInt(coordsB[1].trim());
-
-        // Store the points in the coordinates map
-        pointCoordinates.put(pointA, coordinatesA);
-        pointCoordinates.put(pointB, coordinatesB);
+        int xA = a.getX();
+        int yA = a.getY();
+        int xB = b.getX();
+        int yB = b.getY();
 
         // Add the geometries for both points and the segment
-        geometries.add(new SegmentGeometry(xA, yA, xB, yB));
-        geometries.add(new PointGeometry(pointA, xA, yA));
-        geometries.add(new PointGeometry(pointB, xB, yB));
+        int segment = scene.addSegment(xA, yA, xB, yB);
+        int markerA = scene.addPoint(pointA, xA, yA);
+        int markerB = scene.addPoint(pointB, xB, yB);
+        if (constructions != null) {
+            int idA = constructions.point(a);
+            int idB = constructions.point(b);
+            constructions.segment(idA, idB, segment);
+            constructions.marker(idA, markerA);
+            constructions.marker(idB, markerB);
+        }
 
-        graphicCode += "       geometries.add(new SegmentGeometry("+xA+","+ yA+","+ xB+","+yB+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointA+"\","+ xA+","+ yA+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointB+"\","+ xB+","+ yB+"));\n";
 
-        return drawSegmentNode;
+        return new DrawSegmentNode(a, b);
     }
 
 
     private Node handleBuildTriangle() {
-        consume("GEOMETRY"); // "трикутник"
-        consume("RESERVED_WORD"); // "за"
-        consume("GEOMETRY"); // "точками"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "трикутник"
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "за"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "точками"
 
-        String pointA = consumeAndGet("NAME").getLexeme(); // <точка>
-        String coordinatesA = getCoords(pointA);
+        String pointA = consumeAndGet(TokenKind.NAME); // <точка>
+        if (pointA == null) return null;
+        PointRef a = getCoords(pointA);
+        if (a == null) return null;
 
-        consume("DELIMITER"); // ","
+        if (!consume(TokenKind.DELIMITER)) return null; // ","
 
         // Parse the second point
-        String pointB = consumeAndGet("NAME").getLexeme(); // <точка>
-        String coordinatesB = getCoords(pointB);
+        String pointB = consumeAndGet(TokenKind.NAME); // <точка>
+        if (pointB == null) return null;
+        PointRef b = getCoords(pointB);
+        if (b == null) return null;
 
-        consume("DELIMITER"); // ","
+        if (!consume(TokenKind.DELIMITER)) return null; // ","
 
         // Parse the third point
-        String pointC = consumeAndGet("NAME").getLexeme(); // <точка>
-        String coordinatesC = getCoords(pointC);
-
-        Node buildTriangleNode = new Node("BuildTriangle");
-        buildTriangleNode.addChild(new Node("PutPoint "+pointA + " " + coordinatesA));
-        buildTriangleNode.addChild(new Node("PutPoint "+pointB + " " + coordinatesB));
-        buildTriangleNode.addChild(new Node("PutPoint "+pointC + " " + coordinatesC));
-
-
-        String[] coordsA = coordinatesA.replaceAll("[()]", "").split(",");
-        String[] coordsB = coordinatesB.replaceAll("[()]", "").split(",");
-        String[] coordsC = coordinatesC.replaceAll("[()]", "").split(",");
-
-        int xA = Integer.parseInt(coordsA[0].trim());
-        int yA = Integer.parseInt(coordsA[1].trim());
-        int xB = Integer.parseInt(coordsB[0].trim());
-        int yB = Integer.parseInt(coordsB[1].trim());
-        int xC = Integer.parseInt(coordsC[0].trim());
-        int yC = Integer.parseInt(coordsC[1].trim());
-
-        pointCoordinates.put(pointA, coordinatesA);
-        pointCoordinates.put(pointB, coordinatesB);
-        pointCoordinates.put(pointC, coordinatesC);
-
-
-        geometries.add(new SegmentGeometry(xA, yA, xB, yB));
-        geometries.add(new SegmentGeometry(xB, yB, xC, yC));
-        geometries.add(new SegmentGeometry(xC, yC, xA, yA));
-
-        geometries.add(new PointGeometry(pointA, xA, yA));
-        geometries.add(new PointGeometry(pointB, xB, yB));
-        geometries.add(new PointGeometry(pointC, xC, yC));
+        String pointC = consumeAndGet(TokenKind.NAME); // <точка>
+        if (pointC == null) return null;
+        PointRef c = getCoords(pointC);
+        if (c == null) return null;
+
+        int xA = a.getX();
+        int yA = a.getY();
+        int xB = b.getX();
+        int yB = b.getY();
+        int xC = c.getX();
+        int yC = c.getY();
+
+        int ab = scene.addSegment(xA, yA, xB, yB);
+        int bc = scene.addSegment(xB, yB, xC, yC);
+        int ca = scene.addSegment(xC, yC, xA, yA);
+
+        int markerA = scene.addPoint(pointA, xA, yA);
+        int markerB = scene.addPoint(pointB, xB, yB);
+        int markerC = scene.addPoint(pointC, xC, yC);
+        if (constructions != null) {
+            int idA = constructions.point(a);
+            int idB = constructions.point(b);
+            int idC = constructions.point(c);
+            constructions.segment(idA, idB, ab);
+            constructions.segment(idB, idC, bc);
+            constructions.segment(idC, idA, ca);
+            constructions.marker(idA, markerA);
+            constructions.marker(idB, markerB);
+            constructions.marker(idC, markerC);
+        }
 
 
-        graphicCode += "       geometries.add(new SegmentGeometry("+xA+","+ yA+","+ xB+","+yB+"));\n";
-        graphicCode += "       geometries.add(new SegmentGeometry("+xB+","+ yB+","+ xC+","+yC+"));\n";
-        graphicCode += "       geometries.add(new SegmentGeometry("+xC+","+ yC+","+ xA+","+yA+"));\n";
 
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointA+"\","+ xA+","+ yA+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointB+"\","+ xB+","+ yB+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointC+"\","+ xC+","+ yC+"));\n";
 
 
 
-        return buildTriangleNode;
+        return new BuildTriangleNode(a, b, c);
     }
 
-    private String getCoords(String pointC) {
-        String coordinatesC;
-        if (currentTokenIndex < tokens.size() && currentToken().getType().equals("COORDINATES")) {
-            coordinatesC = consumeAndGet("COORDINATES").getLexeme();
-            pointCoordinates.put(pointC, coordinatesC);
+    // Coordinates are parsed once here; afterwards points are only passed around as PointRef.
+    // Null after recording the error when recovering
+    private PointRef getCoords(String pointName) {
+        PointRef point;
+        if (tokens.peekKind() == TokenKind.COORDINATES) {
+            int[] xy = parseCoordinates(tokens.nextText());
+            if (xy == null) return null;
+            point = new PointRef(pointName, xy[0], xy[1]);
+            definePoint(point);
         } else {
-            coordinatesC = pointCoordinates.get(pointC);
-            if (coordinatesC == null) {
-                coordinatesC = generateUniqueCoordinates();
-                pointCoordinates.put(pointC, coordinatesC);
+            point = symbols.getPoint(pointName);
+            if (point == null) {
+                point = generateUniqueCoordinates(pointName);
+                recordPoint(point);
             }
         }
-        return coordinatesC;
+        return point;
     }
 
 
     private Node handleBuildSquare() {
-        consume("GEOMETRY"); // "квадрат"
-        consume("RESERVED_WORD"); // "зі"
-        consume("GEOMETRY"); // "стороною"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "квадрат"
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "зі"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "стороною"
 
-        String lineName = consumeAndGet("NAME").getLexeme(); // <лінія>
+        String lineName = consumeAndGet(TokenKind.NAME); // <лінія>
+        if (lineName == null || !checkLineName(lineName)) return null;
 
         String pointAName = lineName.charAt(0) + "";
         String pointBName = lineName.charAt(1) + "";
 
-        String coordinatesA = getCoords(pointAName);
-        String coordinatesB = getCoords(pointBName);
-
-        String[] coordsA = coordinatesA.replaceAll("[()]", "").split(",");
-        String[] coordsB = coordinatesB.replaceAll("[()]", "").split(",");
+        PointRef a = getCoords(pointAName);
+        if (a == null) return null;
+        PointRef b = getCoords(pointBName);
+        if (b == null) return null;
 
-        int x1 = Integer.parseInt(coordsA[0].trim());
-        int y1 = Integer.parseInt(coordsA[1].trim());
-        int x2 = Integer.parseInt(coordsB[0].trim());
-        int y2 = Integer.parseInt(coordsB[1].trim());
+        int x1 = a.getX();
+        int y1 = a.getY();
+        int x2 = b.getX();
+        int y2 = b.getY();
 
-        int dx = x2 - x1;
-        int dy = y2 - y1;
-        int x3 = x1 - dy;
-        int y3 = y1 + dx;
-        int x4 = x2 - dy;
-        int y4 = y2 + dx;
+        GeometryKernel.square(x1, y1, x2, y2, construction);
+        int x3 = GeometryKernel.toGrid(construction[0]);
+        int y3 = GeometryKernel.toGrid(construction[1]);
+        int x4 = GeometryKernel.toGrid(construction[2]);
+        int y4 = GeometryKernel.toGrid(construction[3]);
 
         String pointCName = pointAName + "1";
         String pointDName = pointBName + "1";
 
-        // Create a node for the square and add points and edges
-        Node buildSquareNode = new Node("BuildSquare");
-        buildSquareNode.addChild(new Node("PutPoint: " + pointAName + " (" + x1 + "," + y1 + ")"));
-        buildSquareNode.addChild(new Node("PutPoint: " + pointBName + " (" + x2 + "," + y2 + ")"));
-        buildSquareNode.addChild(new Node("PutPoint: " + pointCName + " (" + x3 + "," + y3 + ")"));
-        buildSquareNode.addChild(new Node("PutPoint: " + pointDName + " (" + x4 + "," + y4 + ")"));
-
-        // Add lines connecting the square's corners with named endpoints
-        buildSquareNode.addChild(new Node("DrawSegment: " + pointAName + " (" + x1 + "," + y1 + ") to " + pointBName + " (" + x2 + "," + y2 + ")"));
-        buildSquareNode.addChild(new Node("DrawSegment: " + pointCName + " (" + x3 + "," + y3 + ") to " + pointDName + " (" + x4 + "," + y4 + ")"));
-        buildSquareNode.addChild(new Node("DrawSegment: " + pointAName + " (" + x1 + "," + y1 + ") to " + pointCName + " (" + x3 + "," + y3 + ")"));
-        buildSquareNode.addChild(new Node("DrawSegment: " + pointBName + " (" + x2 + "," + y2 + ") to " + pointDName + " (" + x4 + "," + y4 + ")"));
-
-
-        // Add point geometries for the square
-        geometries.add(new SegmentGeometry(x1, y1, x3, y3));
-        geometries.add(new SegmentGeometry(x1, y1, x2, y2));
-        geometries.add(new SegmentGeometry(x2, y2, x4, y4));
-        geometries.add(new SegmentGeometry(x3, y3, x4, y4));
-        geometries.add(new PointGeometry(pointCName, x1, y1));
-        geometries.add(new PointGeometry(pointCName, x2, y2));
-        geometries.add(new PointGeometry(pointAName, x3, y3));
-        geometries.add(new PointGeometry(pointBName, x4, y4));
+        int ac = scene.addSegment(x1, y1, x3, y3);
+        int ab = scene.addSegment(x1, y1, x2, y2);
+        int bd = scene.addSegment(x2, y2, x4, y4);
+        int cd = scene.addSegment(x3, y3, x4, y4);
+        int markerA = scene.addPoint(pointAName, x1, y1);
+        int markerB = scene.addPoint(pointBName, x2, y2);
+        int markerC = scene.addPoint(pointCName, x3, y3);
+        int markerD = scene.addPoint(pointDName, x4, y4);
+        if (constructions != null) {
+            int idA = constructions.point(a);
+            int idB = constructions.point(b);
+            int idC = constructions.derive(ConstructionGraph.SQUARE_C, idA, idB, x3, y3);
+            int idD = constructions.derive(ConstructionGraph.SQUARE_D, idA, idB, x4, y4);
+            constructions.segment(idA, idC, ac);
+            constructions.segment(idA, idB, ab);
+            constructions.segment(idB, idD, bd);
+            constructions.segment(idC, idD, cd);
+            constructions.marker(idA, markerA);
+            constructions.marker(idB, markerB);
+            constructions.marker(idC, markerC);
+            constructions.marker(idD, markerD);
+        }
 
-        graphicCode += "       geometries.add(new SegmentGeometry("+x1+","+ y1+","+ x3+","+y3+"));\n";
-        graphicCode += "       geometries.add(new SegmentGeometry("+x1+","+ y1+","+ x2+","+y2+"));\n";
-        graphicCode += "       geometries.add(new SegmentGeometry("+x2+","+ y2+","+ x4+","+y4+"));\n";
-        graphicCode += "       geometries.add(new SegmentGeometry("+x3+","+ y3+","+ x4+","+y4+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointCName+"\","+ x3+","+ y3+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointDName+"\","+ x4+","+ y4+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointAName+"\","+ x2+","+ y2+"));\n";
-        graphicCode += "       geometries.add(new PointGeometry(\""+pointBName+"\","+ x1+","+ y1+"));\n";
 
 
 
-        return buildSquareNode;
+        return new BuildSquareNode(a, b, new PointRef(pointCName, x3, y3), new PointRef(pointDName, x4, y4));
     }
 
 
-    private Node parseListOfPoints() {
-        Node listNode = new Node("ListOfPoints");
-
-        String pointName = consumeAndGet("NAME").getLexeme(); // <точка>
-        String coordinates = consumeAndGet("COORDINATES").getLexeme(); // <координати>
-
-        pointCoordinates.put(pointName, coordinates);
-        listNode.addChild(new Node(pointName + " " + coordinates));
-
-        while (currentTokenIndex < tokens.size() && currentToken().getLexeme().equals(",")) {
-            consume("DELIMITER"); // consume ','
-            pointName = consumeAndGet("NAME").getLexeme(); // <точка>
-            coordinates = consumeAndGet("COORDINATES").getLexeme(); // <координати>
+    // Null when recovering from a syntax error
+    private List<String> parseListOfPoints() {
+        List<String> pointNames = new ArrayList<>();
 
-            pointCoordinates.put(pointName, coordinates); // Store point coordinates
-            listNode.addChild(new Node(pointName + " " + coordinates));
-        }
+        do {
+            if (!pointNames.isEmpty()) {
+                if (!consume(TokenKind.DELIMITER)) return null; // consume ','
+            }
+            String pointName = consumeAndGet(TokenKind.NAME); // <точка>
+            if (pointName == null) return null;
+            String coordinates = consumeAndGet(TokenKind.COORDINATES); // <координати>
+            if (coordinates == null) return null;
+            int[] xy = parseCoordinates(coordinates);
+            if (xy == null) return null;
+
+            definePoint(new PointRef(pointName, xy[0], xy[1])); // Store point coordinates
+            pointNames.add(pointName);
+        } while (tokens.peekIs(","));
 
-        return listNode;
+        return pointNames;
     }
 
 
     private Node handleDrawPerpendicular() {
         // Start parsing the command
-        consume("GEOMETRY"); // "пряму"
-        consume("DELIMITER"); // ","
-        consume("GEOMETRY"); // "перпендикулярну"
-        consume("RESERVED_WORD"); // "до"
-        consume("GEOMETRY"); // "відрізка"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "пряму"
+        if (!consume(TokenKind.DELIMITER)) return null; // ","
+        if (!consume(TokenKind.GEOMETRY)) return null; // "перпендикулярну"
+        if (!consume(TokenKind.RESERVED_WORD)) return null; // "до"
+        if (!consume(TokenKind.GEOMETRY)) return null; // "відрізка"
 
-        String lineName = consumeAndGet("NAME").getLexeme(); // <лінія>
+        String lineName = consumeAndGet(TokenKind.NAME); // <лінія>
+        if (lineName == null || !checkLineName(lineName)) return null;
 
         String pointA = lineName.charAt(0) + "";
         String pointB = lineName.charAt(1) + "";
 
-        String coordinatesA = pointCoordinates.getOrDefault(pointA, "(0,0)");
-        String coordinatesB = pointCoordinates.getOrDefault(pointB, "(0,0)");
-
-        String[] coordsA = coordinatesA.replaceAll("[()]", "").split(",");
-        String[] coordsB = coordinatesB.replaceAll("[()]", "").split(",");
-        int xA = Integer.parseInt(coordsA[0].trim());
-        int yA = Integer.parseInt(coordsA[1].trim());
-        int xB = Integer.parseInt(coordsB[0].trim());
-        int yB = Integer.parseInt(coordsB[1].trim());
-
-        int midX = (xA + xB) / 2;
-        int midY = (yA + yB) / 2;
-
-        double slopeAB = (yB - yA) / (double)(xB - xA);
-        double perpendicularSlope = -1 / slopeAB;
-
-        int length = 20;
-
-        int dx = (int)(length / Math.sqrt(1 + Math.pow(perpendicularSlope, 2)));
-        int dy = (int)(perpendicularSlope * dx);
-
-        int xC1 = midX + dx;
-        int yC1 = midY + dy;
-        int xC2 = midX - dx;
-        int yC2 = midY - dy;
-
-        Node drawPerpendicularNode = new Node("DrawPerpendicular");
-        drawPerpendicularNode.addChild(new Node(pointA + " " + coordinatesA));
-        drawPerpendicularNode.addChild(new Node(pointB + " " + coordinatesB));
-        drawPerpendicularNode.addChild(new Node("C1 (" + xC1 + "," + yC1 + ")"));
-        drawPerpendicularNode.addChild(new Node("C2 (" + xC2 + "," + yC2 + ")"));
-
-        geometries.add(new SegmentGeometry(midX, midY, xC1, yC1));
-        geometries.add(new SegmentGeometry(midX, midY, xC2, yC2));
+        PointRef a = symbols.getPoint(pointA);
+        PointRef b = symbols.getPoint(pointB);
+        if (a == null) a = new PointRef(pointA, 0, 0);
+        if (b == null) b = new PointRef(pointB, 0, 0);
+
+        int xA = a.getX();
+        int yA = a.getY();
+        int xB = b.getX();
+        int yB = b.getY();
+
+        int midX = GeometryKernel.toGrid(GeometryKernel.midpoint(xA, xB));
+        int midY = GeometryKernel.toGrid(GeometryKernel.midpoint(yA, yB));
+
+        // A segment of zero length gets a zero-length perpendicular at its midpoint
+        GeometryKernel.perpendicular(xA, yA, xB, yB, PERPENDICULAR_LENGTH, construction);
+        int xC1 = GeometryKernel.toGrid(construction[0]);
+        int yC1 = GeometryKernel.toGrid(construction[1]);
+        int xC2 = GeometryKernel.toGrid(construction[2]);
+        int yC2 = GeometryKernel.toGrid(construction[3]);
+
+        int first = scene.addSegment(midX, midY, xC1, yC1);
+        int second = scene.addSegment(midX, midY, xC2, yC2);
+        if (constructions != null) {
+            int idA = constructions.point(a);
+            int idB = constructions.point(b);
+            int middle = constructions.derive(ConstructionGraph.MIDPOINT, idA, idB, midX, midY);
+            int idC1 = constructions.derive(ConstructionGraph.PERPENDICULAR_1, idA, idB, xC1, yC1);
+            int idC2 = constructions.derive(ConstructionGraph.PERPENDICULAR_2, idA, idB, xC2, yC2);
+            constructions.segment(middle, idC1, first);
+            constructions.segment(middle, idC2, second);
+        }
 
 
-        graphicCode += "       geometries.add(new SegmentGeometry("+midX+","+ midY+","+ xC1+","+yC1+"));\n";
-        graphicCode += "       geometries.add(new SegmentGeometry("+midX+","+ midY+","+ xC2+","+yC2+"));\n";
 
 
 
-        return drawPerpendicularNode;
+        return new DrawPerpendicularNode(a, b, new PointRef("C1", xC1, yC1), new PointRef("C2", xC2, yC2));
     }
 
 
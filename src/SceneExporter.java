@@ -0,0 +1,302 @@
+import javax.imageio.ImageIO;
+import javax.swing.UIManager;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a scene to PNG or SVG without opening a window.
+ * <p>
+ * Usage: java SceneExporter [-o out.png|out.svg|out.scene] [-scale s] [-j threads] [-tile px] [-offheap] script|in.scene
+ * <p>
+ * A .scene output is the compiled scene in SceneFile's binary format; a .scene
+ * input is rendered without parsing anything.
+ * <p>
+ * The exported area is the panel's default view grown to cover every shape,
+ * drawn at scale times the panel's default zoom.
+ * PNG output is split into square tiles that are rasterized in parallel, each
+ * into its own part of one image and drawing only the shapes the spatial index
+ * finds under it. SVG output is written shape by shape to the stream, so
+ * memory stays flat however large the scene is.
+ */
+class SceneExporter {
+    private static final int SEGMENTS_PER_PATH = 256;
+    // World area of an 800x600 panel at the default zoom
+    private static final Rectangle2D DEFAULT_VIEW = new Rectangle2D.Double(-10, -7.5, 20, 15);
+    // World units added around the scene; labels extend to the right of their points
+    private static final double MARGIN = 0.5;
+    private static final double LABEL_ROOM = 2;
+
+    private final SceneStore scene;
+    private final Viewport view;
+    private final int width;
+    private final int height;
+
+    public SceneExporter(List<Geometry> geometries, double scale) {
+        this.scene = SceneStore.of(geometries);
+        Rectangle2D region = (Rectangle2D) DEFAULT_VIEW.clone();
+        if (!scene.isEmpty()) region.add(scene.getBounds());
+        region.setRect(region.getX() - MARGIN, region.getY() - MARGIN,
+                region.getWidth() + 2 * MARGIN + LABEL_ROOM, region.getHeight() + 2 * MARGIN);
+
+        double pixelsPerUnit = DrawingPanel.GRID_SPACING * scale;
+        this.view = new Viewport(pixelsPerUnit, -region.getMinX() * pixelsPerUnit, region.getMaxY() * pixelsPerUnit);
+        this.width = (int) Math.ceil(region.getWidth() * pixelsPerUnit);
+        this.height = (int) Math.ceil(region.getHeight() * pixelsPerUnit);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path output = Path.of("scene.png");
+        double scale = 1;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int tileSize = 512;
+        boolean offHeap = false;
+        Path script = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o" -> output = Path.of(args[++i]);
+                case "-scale" -> scale = Double.parseDouble(args[++i]);
+                case "-j" -> parallelism = Integer.parseInt(args[++i]);
+                case "-tile" -> tileSize = Integer.parseInt(args[++i]);
+                case "-offheap" -> offHeap = true;
+                default -> script = Path.of(args[i]);
+            }
+        }
+        if (script == null) {
+            System.out.println("Usage: java SceneExporter [-o out.png|out.svg|out.scene] [-scale s] [-j threads] [-tile px] [-offheap] script|in.scene");
+            return;
+        }
+
+        SceneStore scene;
+        if (script.toString().endsWith(".scene")) {
+            scene = SceneFile.map(script);
+        } else {
+            String text = Files.readString(script, StandardCharsets.UTF_8);
+            Parser parser = new Parser(LexicalAnalyser.tokenize(text).stream(), new CoordinateAllocator(),
+                    new SymbolTable(), new SceneStore(offHeap));
+            parser.parse();
+            scene = parser.getScene();
+        }
+
+        long start = System.nanoTime();
+        if (output.toString().endsWith(".scene")) {
+            SceneFile.write(scene, output);
+        } else if (output.toString().endsWith(".svg")) {
+            new SceneExporter(scene, scale).writeSvg(output);
+        } else {
+            new SceneExporter(scene, scale).writePng(output, tileSize, parallelism);
+        }
+        System.out.printf("Exported %d geometries to %s in %.3f s%n",
+                scene.size(), output, (System.nanoTime() - start) / 1e9);
+    }
+
+    public void writePng(Path file, int tileSize, int parallelism) throws IOException, InterruptedException {
+        ImageIO.write(rasterize(tileSize, parallelism), "png", file.toFile());
+    }
+
+    public BufferedImage rasterize(int tileSize, int parallelism) throws InterruptedException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        // The index is not thread-safe, so every tile's shapes are looked up before rendering starts
+        SpatialIndex index = scene.getIndex();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                Rectangle tile = new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+                Rectangle searched = new Rectangle(tile);
+                searched.grow(DrawingPanel.LABEL_MARGIN, DrawingPanel.LABEL_MARGIN);
+                int[] items = index.query(view.toWorld(searched));
+                tasks.add(() -> {
+                    renderTile(image, tile, items);
+                    return null;
+                });
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return image;
+    }
+
+    // Tiles write disjoint rectangles of the shared image, so they need no locking
+    private void renderTile(BufferedImage image, Rectangle tile, int[] items) {
+        Graphics2D g = image.getSubimage(tile.x, tile.y, tile.width, tile.height).createGraphics();
+        try {
+            g.setColor(background());
+            g.fillRect(0, 0, tile.width, tile.height);
+            g.clipRect(0, 0, tile.width, tile.height);
+            g.translate(-tile.x, -tile.y);
+            DrawingPanel.drawCartesianGrid(g, view, new Rectangle(0, 0, width, height), tile);
+            // Aliased lines start their staircase where the clip cuts them, which would leave
+            // seams between tiles; coverage-based antialiasing does not depend on the clip
+            new SceneRenderer(true).draw(g, view, scene, items);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    public void writeSvg(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeSvg(out);
+        }
+    }
+
+    public void writeSvg(Writer out) throws IOException {
+        int size = PointGeometry.POINT_SIZE;
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+        out.write(" width=\"" + width + "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        out.write("<defs><g id=\"point\">");
+        out.write("<circle cx=\"3\" cy=\"3\" r=\"" + size / 2 + "\" fill=\"" + hex(PointGeometry.SHADOW_COLOR) + "\""
+                + " fill-opacity=\"" + opacity(PointGeometry.SHADOW_COLOR) + "\"/>");
+        out.write("<circle r=\"" + size / 2 + "\" fill=\"" + hex(PointGeometry.POINT_COLOR) + "\""
+                + " stroke=\"" + hex(PointGeometry.BORDER_COLOR) + "\"/>");
+        out.write("</g></defs>\n");
+        out.write("<rect width=\"" + width + "\" height=\"" + height + "\" fill=\"" + hex(background()) + "\"/>\n");
+        writeSvgGrid(out);
+
+        // Segments, then points, then labels: the same stacking as SceneRenderer
+        out.write("<g stroke=\"" + hex(SegmentGeometry.COLOR) + "\" fill=\"none\">\n");
+        SvgSegments segments = new SvgSegments(out);
+        Rectangle page = new Rectangle(0, 0, width, height);
+        for (int i = 0; i < scene.size(); i++) {
+            if (scene.kind(i) == SceneStore.SEGMENT) {
+                segments.add(screenX(scene.x1(i)), screenY(scene.y1(i)), screenX(scene.x2(i)), screenY(scene.y2(i)));
+            } else if (scene.kind(i) == SceneStore.GRAPH) {
+                try {
+                    scene.getGraph(i).forEachVisibleEdge(view, page, (x1, y1, x2, y2) -> {
+                        try {
+                            segments.add((int) x1, (int) y1, (int) x2, (int) y2);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+        segments.finish();
+        out.write("</g>\n");
+
+        for (int i = 0; i < scene.size(); i++) {
+            if (scene.kind(i) == SceneStore.POINT) {
+                out.write("<use xlink:href=\"#point\" x=\"" + screenX(scene.x1(i)) + "\" y=\"" + screenY(scene.y1(i)) + "\"/>\n");
+            }
+        }
+
+        Font font = PointGeometry.NAME_FONT;
+        out.write("<g font-family=\"" + font.getFamily() + "\" font-weight=\"bold\" font-size=\"" + font.getSize() + "\">\n");
+        for (int i = 0; i < scene.size(); i++) {
+            if (scene.kind(i) == SceneStore.POINT) {
+                out.write("<text x=\"" + (screenX(scene.x1(i)) + size / 2 + 5) + "\" y=\"" + (screenY(scene.y1(i)) + 5) + "\">");
+                out.write(escape(scene.getName(i)));
+                out.write("</text>\n");
+            }
+        }
+        out.write("</g>\n</svg>\n");
+    }
+
+    private void writeSvgGrid(Writer out) throws IOException {
+        int originX = screenX(0);
+        int originY = screenY(0);
+        double step = DrawingPanel.gridStep(view.getScale());
+        long firstX = (long) Math.floor(view.toWorldX(0) / step);
+        long lastX = (long) Math.ceil(view.toWorldX(width) / step);
+        long firstY = (long) Math.floor(view.toWorldY(height) / step);
+        long lastY = (long) Math.ceil(view.toWorldY(0) / step);
+
+        out.write("<path stroke=\"" + hex(DrawingPanel.GRID_COLOR) + "\" d=\"");
+        for (long k = firstX; k <= lastX; k++) {
+            out.write("M" + screenX(k * step) + " 0V" + height);
+        }
+        for (long k = firstY; k <= lastY; k++) {
+            out.write("M0 " + screenY(k * step) + "H" + width);
+        }
+        out.write("\"/>\n");
+        out.write("<path stroke=\"black\" d=\"M" + originX + " 0V" + height + "M0 " + originY + "H" + width + "\"/>\n");
+
+        out.write("<g font-family=\"Arial\" font-size=\"10\">\n");
+        out.write("<text x=\"" + (originX + 5) + "\" y=\"" + (originY - 5) + "\">0</text>\n");
+        for (long k = firstX; k <= lastX; k++) {
+            if (k == 0) continue;
+            out.write("<text x=\"" + (screenX(k * step) + 2) + "\" y=\"" + (originY - 2) + "\">"
+                    + DrawingPanel.gridLabel(k, step) + "</text>\n");
+        }
+        for (long k = firstY; k <= lastY; k++) {
+            if (k == 0) continue;
+            out.write("<text x=\"" + (originX + 2) + "\" y=\"" + (screenY(k * step) - 2) + "\">"
+                    + DrawingPanel.gridLabel(k, step) + "</text>\n");
+        }
+        out.write("</g>\n");
+    }
+
+    // Writes segments as paths of SEGMENTS_PER_PATH subpaths each
+    private static final class SvgSegments {
+        private final Writer out;
+        private int pending;
+
+        SvgSegments(Writer out) {
+            this.out = out;
+        }
+
+        void add(int x1, int y1, int x2, int y2) throws IOException {
+            out.write(pending == 0 ? "<path d=\"" : " ");
+            out.write("M" + x1 + " " + y1 + "L" + x2 + " " + y2);
+            if (++pending == SEGMENTS_PER_PATH) {
+                out.write("\"/>\n");
+                pending = 0;
+            }
+        }
+
+        void finish() throws IOException {
+            if (pending > 0) out.write("\"/>\n");
+            pending = 0;
+        }
+    }
+
+    private int screenX(double x) {
+        return (int) Math.round(view.toScreenX(x));
+    }
+
+    private int screenY(double y) {
+        return (int) Math.round(view.toScreenY(y));
+    }
+
+    private static Color background() {
+        Color color = UIManager.getColor("Panel.background");
+        return color != null ? color : Color.WHITE;
+    }
+
+    private static String hex(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xffffff);
+    }
+
+    private static String opacity(Color color) {
+        return String.valueOf(color.getAlpha() / 255.0);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
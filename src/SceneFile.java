@@ -0,0 +1,342 @@
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled scene on disk: a SceneStore's columns, name and graph tables, and
+ * its spatial index, so a viewer can show the scene without a compiler.
+ * <p>
+ * map() opens a file by memory-mapping each section and handing the buffers
+ * to a read-only SceneStore and SpatialIndex. Nothing is copied or created per
+ * shape; names and graphs are decoded the first time they are asked for.
+ * <p>
+ * Layout, little-endian, every section starting on a multiple of 4 bytes:
+ * <pre>
+ *   header      magic "GSCN", version, counts, bounds and grid (HEADER_BYTES)
+ *   kinds       one byte per shape
+ *   x1, y1,
+ *   x2, y2      one int per shape each
+ *   references  one char per shape, then (shape, count) int pairs for counts over 65534
+ *   names       name count + 1 byte offsets, then the UTF-8 bytes
+ *   graphs      graph count + 1 vertex offsets, then all x, then all y
+ *   index       cell count + 1 cell starts, the cell items, the spanning shapes
+ * </pre>
+ */
+class SceneFile {
+    static final int MAGIC = 0x4E435347; // "GSCN"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 96;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private SceneFile() {
+    }
+
+    public static void write(SceneStore scene, Path file) throws IOException {
+        int size = scene.size();
+        SpatialIndex index = scene.getIndex();
+        if (!index.isExact()) {
+            // Shapes were moved since it was built; the file gets cell tables that hold them all
+            index = new SpatialIndex(scene);
+            scene.setIndex(index);
+        }
+
+        List<byte[]> names = new ArrayList<>(scene.getNameCount());
+        int nameBytes = 0;
+        for (int id = 0; id < scene.getNameCount(); id++) {
+            byte[] bytes = scene.nameAt(id).getBytes(StandardCharsets.UTF_8);
+            names.add(bytes);
+            nameBytes += bytes.length;
+        }
+        int vertices = 0;
+        for (int id = 0; id < scene.getGraphCount(); id++) {
+            vertices += scene.graphAt(id).getVertexCount();
+        }
+        List<Integer> largeReferences = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (scene.getReferences(i) >= Character.MAX_VALUE) largeReferences.add(i);
+        }
+        Rectangle2D bounds = index.getBounds();
+        IntBuffer cellStarts = index.getCellStarts();
+        IntBuffer cellItems = index.getCellItems();
+        int[] spanning = index.getSpanning();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(size);
+            out.putInt(names.size());
+            out.putInt(nameBytes);
+            out.putInt(scene.getGraphCount());
+            out.putInt(vertices);
+            out.putInt(largeReferences.size());
+            out.putLong(scene.getAddedCount());
+            out.putInt((int) bounds.getMinX());
+            out.putInt((int) bounds.getMinY());
+            out.putInt((int) bounds.getMaxX());
+            out.putInt((int) bounds.getMaxY());
+            out.putDouble(index.getCellSize());
+            out.putInt(index.getColumns());
+            out.putInt(index.getRows());
+            out.putInt(cellItems.remaining());
+            out.putInt(spanning.length);
+            out.pad(HEADER_BYTES);
+
+            for (int i = 0; i < size; i++) out.putByte(scene.kind(i));
+            out.align();
+            for (int i = 0; i < size; i++) out.putInt(scene.x1(i));
+            for (int i = 0; i < size; i++) out.putInt(scene.y1(i));
+            for (int i = 0; i < size; i++) out.putInt(scene.x2(i));
+            for (int i = 0; i < size; i++) out.putInt(scene.y2(i));
+            for (int i = 0; i < size; i++) out.putChar((char) Math.min(scene.getReferences(i), Character.MAX_VALUE));
+            out.align();
+            for (int i : largeReferences) {
+                out.putInt(i);
+                out.putInt(scene.getReferences(i));
+            }
+
+            int offset = 0;
+            out.putInt(offset);
+            for (byte[] name : names) {
+                offset += name.length;
+                out.putInt(offset);
+            }
+            for (byte[] name : names) out.putBytes(name);
+            out.align();
+
+            offset = 0;
+            out.putInt(offset);
+            for (int id = 0; id < scene.getGraphCount(); id++) {
+                offset += scene.graphAt(id).getVertexCount();
+                out.putInt(offset);
+            }
+            for (int id = 0; id < scene.getGraphCount(); id++) {
+                CompleteGraphGeometry graph = scene.graphAt(id);
+                for (int v = 0; v < graph.getVertexCount(); v++) out.putInt(graph.getX(v));
+            }
+            for (int id = 0; id < scene.getGraphCount(); id++) {
+                CompleteGraphGeometry graph = scene.graphAt(id);
+                for (int v = 0; v < graph.getVertexCount(); v++) out.putInt(graph.getY(v));
+            }
+
+            while (cellStarts.hasRemaining()) out.putInt(cellStarts.get());
+            while (cellItems.hasRemaining()) out.putInt(cellItems.get());
+            for (int item : spanning) out.putInt(item);
+            out.flush();
+        }
+    }
+
+    public static SceneStore map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Not a scene file: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a scene file: " + file);
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported scene file version " + header.getInt(4) + ": " + file);
+            }
+            int size = header.getInt(8);
+            int nameCount = header.getInt(12);
+            int nameBytes = header.getInt(16);
+            int graphCount = header.getInt(20);
+            int vertices = header.getInt(24);
+            int largeCount = header.getInt(28);
+            long added = header.getLong(32);
+            int minX = header.getInt(40), minY = header.getInt(44), maxX = header.getInt(48), maxY = header.getInt(52);
+            double cellSize = header.getDouble(56);
+            int columns = header.getInt(64);
+            int rows = header.getInt(68);
+            int cellItemCount = header.getInt(72);
+            int spanningCount = header.getInt(76);
+
+            Input in = new Input(channel, HEADER_BYTES, file);
+            ByteBuffer kinds = in.bytes(size);
+            IntBuffer x1s = in.ints(size);
+            IntBuffer y1s = in.ints(size);
+            IntBuffer x2s = in.ints(size);
+            IntBuffer y2s = in.ints(size);
+            ByteBuffer references = in.bytes(size * 2L);
+            IntBuffer large = in.ints(largeCount * 2);
+            IntBuffer nameOffsets = in.ints(nameCount + 1);
+            ByteBuffer names = in.bytes(nameBytes);
+            IntBuffer graphOffsets = in.ints(graphCount + 1);
+            IntBuffer graphXs = in.ints(vertices);
+            IntBuffer graphYs = in.ints(vertices);
+            IntBuffer cellStarts = in.ints(columns * rows + 1);
+            IntBuffer cellItems = in.ints(cellItemCount);
+            IntBuffer spanning = in.ints(spanningCount);
+
+            Map<Integer, Integer> largeReferences = new HashMap<>();
+            for (int i = 0; i < largeCount; i++) {
+                largeReferences.put(large.get(2 * i), large.get(2 * i + 1));
+            }
+            Rectangle2D bounds = new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+            SceneStore scene = new SceneStore(kinds, x1s, y1s, x2s, y2s, references.asCharBuffer(), largeReferences,
+                    added, new MappedNames(nameOffsets, names), new MappedGraphs(graphOffsets, graphXs, graphYs),
+                    size > 0 ? bounds : null);
+            int[] spanningItems = new int[spanningCount];
+            spanning.get(spanningItems);
+            scene.setIndex(new SpatialIndex(scene, bounds, cellSize, columns, rows, cellStarts, cellItems, spanningItems));
+            return scene;
+        }
+    }
+
+    // Buffered little-endian writes that keep track of the position for alignment
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(byte value) throws IOException {
+            room(1).put(value);
+            position++;
+        }
+
+        void putChar(char value) throws IOException {
+            room(2).putChar(value);
+            position += 2;
+        }
+
+        void putInt(int value) throws IOException {
+            room(4).putInt(value);
+            position += 4;
+        }
+
+        void putLong(long value) throws IOException {
+            room(8).putLong(value);
+            position += 8;
+        }
+
+        void putDouble(double value) throws IOException {
+            room(8).putDouble(value);
+            position += 8;
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (byte b : bytes) putByte(b);
+        }
+
+        void pad(long to) throws IOException {
+            while (position < to) putByte((byte) 0);
+        }
+
+        void align() throws IOException {
+            pad((position + 3) & ~3L);
+        }
+
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+            return buffer;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    // Maps consecutive sections, each aligned like Output wrote them
+    private static class Input {
+        private final FileChannel channel;
+        private final Path file;
+        private long position;
+
+        Input(FileChannel channel, long position, Path file) {
+            this.channel = channel;
+            this.position = position;
+            this.file = file;
+        }
+
+        ByteBuffer bytes(long length) throws IOException {
+            long start = position;
+            position = (position + length + 3) & ~3L;
+            if (start + length > channel.size()) throw new IOException("Truncated scene file: " + file);
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        IntBuffer ints(int count) throws IOException {
+            return bytes(count * 4L).asIntBuffer();
+        }
+    }
+}
+
+// Point names of a mapped scene, each decoded once when first asked for
+class MappedNames extends AbstractList<String> {
+    private final IntBuffer offsets;
+    private final ByteBuffer bytes;
+    private final String[] decoded;
+
+    MappedNames(IntBuffer offsets, ByteBuffer bytes) {
+        this.offsets = offsets;
+        this.bytes = bytes;
+        this.decoded = new String[offsets.capacity() - 1];
+    }
+
+    @Override
+    public String get(int id) {
+        String name = decoded[id];
+        if (name == null) {
+            byte[] utf8 = new byte[offsets.get(id + 1) - offsets.get(id)];
+            bytes.get(offsets.get(id), utf8);
+            name = new String(utf8, StandardCharsets.UTF_8);
+            decoded[id] = name;
+        }
+        return name;
+    }
+
+    @Override
+    public int size() {
+        return decoded.length;
+    }
+}
+
+// Complete graphs of a mapped scene, each built once when first asked for
+class MappedGraphs extends AbstractList<CompleteGraphGeometry> {
+    private final IntBuffer offsets;
+    private final IntBuffer xs;
+    private final IntBuffer ys;
+    private final CompleteGraphGeometry[] built;
+
+    MappedGraphs(IntBuffer offsets, IntBuffer xs, IntBuffer ys) {
+        this.offsets = offsets;
+        this.xs = xs;
+        this.ys = ys;
+        this.built = new CompleteGraphGeometry[offsets.capacity() - 1];
+    }
+
+    @Override
+    public CompleteGraphGeometry get(int id) {
+        CompleteGraphGeometry graph = built[id];
+        if (graph == null) {
+            int start = offsets.get(id);
+            int[] x = new int[offsets.get(id + 1) - start];
+            int[] y = new int[x.length];
+            xs.get(start, x);
+            ys.get(start, y);
+            graph = new CompleteGraphGeometry(x, y);
+            built[id] = graph;
+        }
+        return graph;
+    }
+
+    @Override
+    public int size() {
+        return built.length;
+    }
+}
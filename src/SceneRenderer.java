@@ -0,0 +1,145 @@
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Draws a scene grouped by style instead of one call sequence per shape.
+ * <p>
+ * Segments are stroked as a few large paths, every point is a copy of one
+ * pre-rendered sprite, and labels are cached glyph vectors. Segments are drawn
+ * first, then points, then labels, so a point is never hidden by a line.
+ * The edges of a complete graph are streamed into the same paths as plain
+ * segments, culled against the clip and capped at
+ * CompleteGraphGeometry.MAX_DRAWN_EDGES per graph.
+ */
+class SceneRenderer {
+    private static final int LABEL_CACHE_SIZE = 1 << 16;
+    // Segments per stroked path; one huge path makes the rasterizer's edge lists the bottleneck
+    private static final int SEGMENTS_PER_PATH = 256;
+    private static final BufferedImage POINT_SPRITE = pointSprite();
+
+    private final Path2D.Float segments = new Path2D.Float();
+    private int pending;
+    private final Map<String, GlyphVector> labels = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GlyphVector> eldest) {
+            return size() > LABEL_CACHE_SIZE;
+        }
+    };
+    private FontRenderContext labelContext;
+    // Kept in a field so a cache miss does not allocate a new lambda
+    private final Function<String, GlyphVector> createLabel =
+            name -> PointGeometry.NAME_FONT.createGlyphVector(labelContext, name);
+    private final boolean antialiasSegments;
+
+    public SceneRenderer() {
+        this(false);
+    }
+
+    public SceneRenderer(boolean antialiasSegments) {
+        this.antialiasSegments = antialiasSegments;
+    }
+
+    /**
+     * Draws the given shapes of the store, or all of them when items is null.
+     * Reads the store's columns, so no object is created per shape.
+     */
+    public void draw(Graphics2D g, Viewport view, SceneStore scene, int[] items) {
+        int count = items != null ? items.length : scene.size();
+        // Segments stay aliased, as they were whenever drawn before the first point turned
+        // antialiasing on; antialiased 1px lines cost most of the frame for little gain
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                antialiasSegments ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setColor(SegmentGeometry.COLOR);
+        segments.reset();
+        pending = 0;
+        Rectangle clip = null;
+        int run = -1;
+        for (int i = 0; i < count; i++) {
+            int item = items != null ? items[i] : i;
+            byte kind = scene.kind(item);
+            if (kind == SceneStore.SEGMENT) {
+                // A path holds the segments of one run of store positions, whichever of them are drawn.
+                // Antialiased segments blend once per path where they overlap, so a tile drawing only
+                // some of the shapes comes out the same as the whole scene drawn at once.
+                if (item / SEGMENTS_PER_PATH != run) {
+                    flush(g);
+                    run = item / SEGMENTS_PER_PATH;
+                }
+                addSegment(g, Math.round(view.toScreenX(scene.x1(item))), Math.round(view.toScreenY(scene.y1(item))),
+                        Math.round(view.toScreenX(scene.x2(item))), Math.round(view.toScreenY(scene.y2(item))));
+            } else if (kind == SceneStore.GRAPH) {
+                if (clip == null) clip = g.getClipBounds();
+                flush(g);
+                run = -1;
+                scene.getGraph(item).forEachVisibleEdge(view, clip, CompleteGraphGeometry.MAX_DRAWN_EDGES,
+                        (x1, y1, x2, y2) -> addSegment(g, x1, y1, x2, y2));
+                flush(g);
+            }
+        }
+        flush(g);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        for (int i = 0; i < count; i++) {
+            int item = items != null ? items[i] : i;
+            if (scene.kind(item) == SceneStore.POINT) {
+                int x = (int) Math.round(view.toScreenX(scene.x1(item)));
+                int y = (int) Math.round(view.toScreenY(scene.y1(item)));
+                g.drawImage(POINT_SPRITE, x - PointGeometry.POINT_SIZE / 2, y - PointGeometry.POINT_SIZE / 2, null);
+            }
+        }
+
+        FontRenderContext context = g.getFontRenderContext();
+        if (!context.equals(labelContext)) {
+            labels.clear();
+            labelContext = context;
+        }
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < count; i++) {
+            int item = items != null ? items[i] : i;
+            if (scene.kind(item) == SceneStore.POINT) {
+                GlyphVector label = labels.computeIfAbsent(scene.getName(item), createLabel);
+                int x = (int) Math.round(view.toScreenX(scene.x1(item)));
+                int y = (int) Math.round(view.toScreenY(scene.y1(item)));
+                g.drawGlyphVector(label, x + PointGeometry.POINT_SIZE / 2 + 5, y + 5);
+            }
+        }
+    }
+
+    private void addSegment(Graphics2D g, float x1, float y1, float x2, float y2) {
+        segments.moveTo(x1, y1);
+        segments.lineTo(x2, y2);
+        if (++pending == SEGMENTS_PER_PATH) {
+            flush(g);
+        }
+    }
+
+    private void flush(Graphics2D g) {
+        if (pending == 0) return;
+        g.draw(segments);
+        segments.reset();
+        pending = 0;
+    }
+
+    // The marker PointGeometry.draw produces, rendered once with the point centre at (size/2, size/2)
+    private static BufferedImage pointSprite() {
+        int size = PointGeometry.POINT_SIZE;
+        BufferedImage sprite = new BufferedImage(size + 4, size + 4, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = sprite.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(PointGeometry.SHADOW_COLOR);
+        g.fill(new Ellipse2D.Double(3, 3, size, size));
+        g.setColor(PointGeometry.BORDER_COLOR);
+        g.drawOval(0, 0, size, size);
+        g.setColor(PointGeometry.POINT_COLOR);
+        g.fillOval(1, 1, size - 2, size - 2);
+        g.dispose();
+        return sprite;
+    }
+}
@@ -0,0 +1,623 @@
+import java.awt.geom.Rectangle2D;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shapes of a scene, each stored once, as columns of primitives.
+ * <p>
+ * Shape i is a kind byte and four ints: a segment's two endpoints, a point's
+ * position and name id, or a complete graph's slot in a side list. Names are
+ * interned in a table, so a point costs no String of its own. With the lookup
+ * table dropped by compact(), a segment takes 19 bytes: kind, coordinates and
+ * a two-byte reference count. The columns can live in direct buffers outside
+ * the heap.
+ * <p>
+ * Points are interned by name and position, segments by their unordered pair
+ * of endpoints, so drawing "AB" after "BA" or naming a vertex again adds
+ * nothing. Shapes keep the order of their first occurrence, until removeAll
+ * takes some out. For every shape the store counts how many times it was
+ * added, that is how many raw operations produced it.
+ * <p>
+ * As a List the store is a read-only view that creates a Geometry for every
+ * get; the renderer, the spatial index and the exporters read the columns.
+ * <p>
+ * A store opened with SceneFile.map reads its columns, names and spatial index
+ * straight from the mapped file and cannot be added to.
+ * <p>
+ * Shapes can be moved, for a ConstructionGraph, without disturbing the
+ * positions of the others. A moved shape that lands on an equal one is kept
+ * apart from it rather than merged, so the same shape may then be stored
+ * twice.
+ */
+class SceneStore extends AbstractList<Geometry> {
+    static final byte POINT = 0;
+    static final byte SEGMENT = 1;
+    static final byte GRAPH = 2;
+    private static final int MAX_REFERENCES = Character.MAX_VALUE;
+
+    private final boolean offHeap;
+    private final boolean readOnly;
+    private ByteBuffer kinds;
+    private IntBuffer x1s, y1s, x2s, y2s;
+    private CharBuffer references;
+    private int size;
+    private long added;
+
+    private final List<String> names;
+    // Filled on demand for names read from a file
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<CompleteGraphGeometry> graphs;
+    // Reference counts that do not fit in the char column
+    private final Map<Integer, Integer> largeReferences;
+
+    // Open-addressing table of shape index + 1 for interning; rebuilt on demand after compact()
+    private int[] slots;
+    // Computed on demand and kept until a shape is added
+    private Rectangle2D bounds;
+    private SpatialIndex index;
+
+    public SceneStore() {
+        this(false);
+    }
+
+    public SceneStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.readOnly = false;
+        this.names = new ArrayList<>();
+        this.graphs = new ArrayList<>();
+        this.largeReferences = new HashMap<>();
+        allocate(16);
+    }
+
+    // A read-only store over columns read by SceneFile
+    SceneStore(ByteBuffer kinds, IntBuffer x1s, IntBuffer y1s, IntBuffer x2s, IntBuffer y2s, CharBuffer references,
+               Map<Integer, Integer> largeReferences, long added, List<String> names,
+               List<CompleteGraphGeometry> graphs, Rectangle2D bounds) {
+        this.offHeap = true;
+        this.readOnly = true;
+        this.kinds = kinds;
+        this.x1s = x1s;
+        this.y1s = y1s;
+        this.x2s = x2s;
+        this.y2s = y2s;
+        this.references = references;
+        this.largeReferences = largeReferences;
+        this.size = kinds.capacity();
+        this.added = added;
+        this.names = names;
+        this.graphs = graphs;
+        this.bounds = bounds;
+    }
+
+    // Copies any geometry list into a store, merging equal shapes
+    public static SceneStore of(List<Geometry> geometries) {
+        if (geometries instanceof SceneStore scene) return scene;
+        SceneStore scene = new SceneStore();
+        for (Geometry geometry : geometries) {
+            scene.intern(geometry);
+        }
+        return scene;
+    }
+
+    public int addPoint(String name, int x, int y) {
+        return add(POINT, x, y, nameId(name), 0, 1);
+    }
+
+    public int addSegment(int x1, int y1, int x2, int y2) {
+        return add(SEGMENT, x1, y1, x2, y2, 1);
+    }
+
+    public int addGraph(CompleteGraphGeometry graph) {
+        return addGraph(graph, 1);
+    }
+
+    // Adds the shape unless an equal one is stored, and returns its index
+    public int intern(Geometry geometry) {
+        if (geometry instanceof PointGeometry point) {
+            return addPoint(point.getName(), point.getX(), point.getY());
+        } else if (geometry instanceof SegmentGeometry segment) {
+            return addSegment(segment.getX1(), segment.getY1(), segment.getX2(), segment.getY2());
+        } else if (geometry instanceof CompleteGraphGeometry graph) {
+            return addGraph(graph);
+        }
+        throw new IllegalArgumentException("Cannot store " + geometry.getClass().getSimpleName());
+    }
+
+    /**
+     * Moves the given number of references to the shape at index to new
+     * coordinates, and returns the index now holding them. When they are all
+     * its references the shape is rewritten in place. Otherwise it stays where
+     * it is for the rest, and the moved ones go to a shape of their own.
+     */
+    public int movePoint(int index, int references, int x, int y) {
+        return relocate(index, references, POINT, x, y, x2s.get(index), 0);
+    }
+
+    // As movePoint; the shape may have been a complete graph before
+    public int moveSegment(int index, int references, int x1, int y1, int x2, int y2) {
+        return relocate(index, references, SEGMENT, x1, y1, x2, y2);
+    }
+
+    // As movePoint; the shape may have been a segment before
+    public int moveGraph(int index, int references, CompleteGraphGeometry graph) {
+        if (split(index, references)) {
+            return movedTo(addGraph(graph, references));
+        }
+        if (slots != null) unlink(index);
+        int slot = kinds.get(index) == GRAPH ? x1s.get(index) : graphs.size();
+        if (slot == graphs.size()) {
+            graphs.add(graph);
+        } else {
+            graphs.set(slot, graph);
+        }
+        return rewrite(index, GRAPH, slot, 0, 0, 0);
+    }
+
+    private int relocate(int index, int references, byte kind, int x1, int y1, int x2, int y2) {
+        if (split(index, references)) {
+            return movedTo(add(kind, x1, y1, x2, y2, references));
+        }
+        if (slots != null) unlink(index);
+        return rewrite(index, kind, x1, y1, x2, y2);
+    }
+
+    // Takes the references off a shape that keeps others; false when they are all it has
+    private boolean split(int index, int references) {
+        if (readOnly) throw new UnsupportedOperationException("A mapped scene is read-only");
+        int count = getReferences(index);
+        if (references < 1 || references > count) {
+            throw new IllegalArgumentException("Cannot move " + references + " of " + count + " references");
+        }
+        if (references == count) return false;
+        setReferences(index, count - references);
+        added -= references;
+        return true;
+    }
+
+    private int rewrite(int i, byte kind, int x1, int y1, int x2, int y2) {
+        kinds.put(i, kind);
+        x1s.put(i, x1);
+        y1s.put(i, y1);
+        x2s.put(i, x2);
+        y2s.put(i, y2);
+        if (slots != null) {
+            // An equal shape already in the table keeps its slot; this one is left out
+            int slot = find(kind, x1, y1, x2, y2);
+            if (slots[slot] == 0) slots[slot] = i + 1;
+        }
+        return movedTo(i);
+    }
+
+    // Lets the spatial index follow a moved or added shape instead of being rebuilt
+    private int movedTo(int i) {
+        bounds = null;
+        if (index != null && index.size() >= i) index.moved(i);
+        return i;
+    }
+
+    // Takes shape i out of the interning table, shifting later entries of its probe run back
+    private void unlink(int i) {
+        int mask = slots.length - 1;
+        int slot = hash(kinds.get(i), x1s.get(i), y1s.get(i), x2s.get(i), y2s.get(i)) & mask;
+        while (slots[slot] != 0 && slots[slot] != i + 1) {
+            slot = (slot + 1) & mask;
+        }
+        if (slots[slot] == 0) return; // Stored twice after a move; the table holds the other one
+        int hole = slot;
+        for (int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int entry = slots[next] - 1;
+            int home = hash(kinds.get(entry), x1s.get(entry), y1s.get(entry), x2s.get(entry), y2s.get(entry)) & mask;
+            // The entry may fill the hole unless its home lies cyclically after the hole, up to its slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    // Merges another store into this one, carrying its reference counts over
+    public void addAll(SceneStore other) {
+        for (int i = 0; i < other.size; i++) {
+            int count = other.getReferences(i);
+            switch (other.kind(i)) {
+                case POINT -> add(POINT, other.x1s.get(i), other.y1s.get(i), nameId(other.getName(i)), 0, count);
+                case SEGMENT -> add(SEGMENT, other.x1s.get(i), other.y1s.get(i), other.x2s.get(i), other.y2s.get(i), count);
+                default -> addGraph(other.getGraph(i), count);
+            }
+        }
+    }
+
+    /**
+     * Takes another store's reference counts back off this one, undoing an
+     * addAll of it. A shape left without references is removed as release
+     * does, so this costs O(1) per shape of the other store.
+     */
+    public void removeAll(SceneStore other) {
+        if (readOnly) throw new UnsupportedOperationException("A mapped scene is read-only");
+        for (int i = 0; i < other.size; i++) {
+            int slot;
+            switch (other.kind(i)) {
+                case POINT -> {
+                    Integer id = findName(other.getName(i));
+                    slot = id == null ? -1 : find(POINT, other.x1s.get(i), other.y1s.get(i), id, 0);
+                }
+                case SEGMENT -> slot = find(SEGMENT, other.x1s.get(i), other.y1s.get(i), other.x2s.get(i), other.y2s.get(i));
+                default -> {
+                    graphs.add(other.getGraph(i));
+                    slot = find(GRAPH, graphs.size() - 1, 0, 0, 0);
+                    graphs.remove(graphs.size() - 1);
+                }
+            }
+            if (slot < 0 || slots[slot] == 0) throw new IllegalArgumentException("Cannot remove a shape not stored");
+            release(slots[slot] - 1, other.getReferences(i));
+        }
+    }
+
+    /**
+     * Takes the given number of references off the shape at index, and
+     * removes it when it has none left. The last shape then takes its
+     * position: returns where that shape was, or -1 when no shape moved.
+     * Removing a shape drops the spatial index; it is built again on use.
+     */
+    public int release(int index, int references) {
+        if (readOnly) throw new UnsupportedOperationException("A mapped scene is read-only");
+        int count = getReferences(index);
+        if (references < 1 || references > count) {
+            throw new IllegalArgumentException("Cannot remove " + references + " of " + count + " references");
+        }
+        added -= references;
+        if (references < count) {
+            setReferences(index, count - references);
+            return -1;
+        }
+        if (slots == null) rehash(Math.max(16, Integer.highestOneBit(Math.max(1, size)) << 2));
+        unlink(index);
+        largeReferences.remove(index);
+        if (kinds.get(index) == GRAPH) removeGraph(x1s.get(index));
+        int last = size - 1;
+        if (index != last) {
+            unlink(last);
+            setReferences(index, getReferences(last));
+            largeReferences.remove(last);
+            rewrite(index, kinds.get(last), x1s.get(last), y1s.get(last), x2s.get(last), y2s.get(last));
+        }
+        size--;
+        bounds = null;
+        this.index = null;
+        return index != last ? last : -1;
+    }
+
+    // Frees a slot of the graph list, moving the last graph into it
+    private void removeGraph(int slot) {
+        int last = graphs.size() - 1;
+        if (slot != last) {
+            int mask = slots.length - 1;
+            int probe = hash(GRAPH, last, 0, 0, 0) & mask;
+            while (slots[probe] != 0 && !(kinds.get(slots[probe] - 1) == GRAPH && x1s.get(slots[probe] - 1) == last)) {
+                probe = (probe + 1) & mask;
+            }
+            int owner = slots[probe] - 1;
+            // A graph stored twice after a move is not in the table
+            for (int i = size - 1; owner < 0; i--) {
+                if (kinds.get(i) == GRAPH && x1s.get(i) == last) owner = i;
+            }
+            graphs.set(slot, graphs.get(last));
+            x1s.put(owner, slot);
+        }
+        graphs.remove(last);
+    }
+
+    private int nameId(String name) {
+        Integer id = findName(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private Integer findName(String name) {
+        for (int id = nameIds.size(); id < names.size(); id++) {
+            nameIds.put(names.get(id), id);
+        }
+        return nameIds.get(name);
+    }
+
+    private int addGraph(CompleteGraphGeometry graph, int count) {
+        if (readOnly) throw new UnsupportedOperationException("A mapped scene is read-only");
+        graphs.add(graph);
+        int index = add(GRAPH, graphs.size() - 1, 0, 0, 0, count);
+        if (x1s.get(index) != graphs.size() - 1) {
+            graphs.remove(graphs.size() - 1);
+        }
+        return index;
+    }
+
+    private int add(byte kind, int x1, int y1, int x2, int y2, int count) {
+        if (readOnly) throw new UnsupportedOperationException("A mapped scene is read-only");
+        added += count;
+        int slot = find(kind, x1, y1, x2, y2);
+        int entry = slots[slot];
+        if (entry != 0) {
+            setReferences(entry - 1, getReferences(entry - 1) + count);
+            return entry - 1;
+        }
+
+        if (size == kinds.capacity()) allocate(size * 2);
+        kinds.put(size, kind);
+        x1s.put(size, x1);
+        y1s.put(size, y1);
+        x2s.put(size, x2);
+        y2s.put(size, y2);
+        setReferences(size, count);
+        slots[slot] = size + 1;
+        size++;
+        bounds = null;
+        if (size * 2 > slots.length) rehash(slots.length * 2);
+        return size - 1;
+    }
+
+    // Slot holding the equal shape, or the empty slot where it would go
+    private int find(byte kind, int x1, int y1, int x2, int y2) {
+        if (slots == null) rehash(Math.max(16, Integer.highestOneBit(Math.max(1, size)) << 2));
+        int mask = slots.length - 1;
+        int slot = hash(kind, x1, y1, x2, y2) & mask;
+        while (slots[slot] != 0 && !matches(slots[slot] - 1, kind, x1, y1, x2, y2)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int hash(byte kind, int x1, int y1, int x2, int y2) {
+        int h;
+        if (kind == SEGMENT) {
+            // Endpoints are hashed apart from each other so their order does not matter
+            int a = x1 * 92821 + y1;
+            int b = x2 * 92821 + y2;
+            h = Math.min(a, b) * 31 + Math.max(a, b);
+        } else if (kind == POINT) {
+            h = (x2 * 31 + x1) * 92821 + y1;
+        } else {
+            h = graphs.get(x1).hashCode();
+        }
+        h = h * 31 + kind;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int i, byte kind, int x1, int y1, int x2, int y2) {
+        if (kinds.get(i) != kind) return false;
+        int a = x1s.get(i), b = y1s.get(i), c = x2s.get(i), d = y2s.get(i);
+        return switch (kind) {
+            case SEGMENT -> a == x1 && b == y1 && c == x2 && d == y2 || a == x2 && b == y2 && c == x1 && d == y1;
+            case POINT -> a == x1 && b == y1 && c == x2;
+            default -> graphs.get(a).equals(graphs.get(x1));
+        };
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(kinds.get(i), x1s.get(i), y1s.get(i), x2s.get(i), y2s.get(i)) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = i + 1;
+        }
+    }
+
+    private void allocate(int capacity) {
+        ByteBuffer newKinds = buffer(capacity);
+        IntBuffer newX1s = buffer(capacity * 4).asIntBuffer();
+        IntBuffer newY1s = buffer(capacity * 4).asIntBuffer();
+        IntBuffer newX2s = buffer(capacity * 4).asIntBuffer();
+        IntBuffer newY2s = buffer(capacity * 4).asIntBuffer();
+        CharBuffer newReferences = buffer(capacity * 2).asCharBuffer();
+        if (kinds != null) {
+            newKinds.put(kinds.clear().limit(size)).clear();
+            newX1s.put(x1s.clear().limit(size)).clear();
+            newY1s.put(y1s.clear().limit(size)).clear();
+            newX2s.put(x2s.clear().limit(size)).clear();
+            newY2s.put(y2s.clear().limit(size)).clear();
+            newReferences.put(references.clear().limit(size)).clear();
+        }
+        kinds = newKinds;
+        x1s = newX1s;
+        y1s = newY1s;
+        x2s = newX2s;
+        y2s = newY2s;
+        references = newReferences;
+    }
+
+    private ByteBuffer buffer(int bytes) {
+        return (offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Trims the columns to the shapes stored and drops the interning table.
+     * Adding more shapes afterwards still works; the table is rebuilt first.
+     */
+    public void compact() {
+        if (kinds.capacity() > Math.max(16, size)) allocate(Math.max(16, size));
+        slots = null;
+    }
+
+    // World bounds of all shapes, or null for an empty store
+    public Rectangle2D getBounds() {
+        if (size == 0) return null;
+        if (bounds == null) bounds = computeBounds();
+        return bounds;
+    }
+
+    private Rectangle2D computeBounds() {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            byte kind = kinds.get(i);
+            if (kind == GRAPH) {
+                Rectangle2D b = getGraph(i).getBounds();
+                minX = Math.min(minX, b.getMinX());
+                maxX = Math.max(maxX, b.getMaxX());
+                minY = Math.min(minY, b.getMinY());
+                maxY = Math.max(maxY, b.getMaxY());
+                continue;
+            }
+            minX = Math.min(minX, x1s.get(i));
+            maxX = Math.max(maxX, x1s.get(i));
+            minY = Math.min(minY, y1s.get(i));
+            maxY = Math.max(maxY, y1s.get(i));
+            if (kind == SEGMENT) {
+                minX = Math.min(minX, x2s.get(i));
+                maxX = Math.max(maxX, x2s.get(i));
+                minY = Math.min(minY, y2s.get(i));
+                maxY = Math.max(maxY, y2s.get(i));
+            }
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // Grid index over the store, built on first use and again after shapes are added or many were moved
+    public SpatialIndex getIndex() {
+        if (index == null || index.size() != size || index.isStale()) {
+            index = new SpatialIndex(this);
+        }
+        return index;
+    }
+
+    // Used by SceneFile for the index stored with the shapes
+    void setIndex(SpatialIndex index) {
+        this.index = index;
+    }
+
+    // Bytes held by the columns and the interning table, wherever they live
+    public long getColumnBytes() {
+        return kinds.capacity() * 19L + (slots != null ? slots.length * 4L : 0);
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // A new Geometry object with the shape's data; use the column accessors in loops
+    @Override
+    public Geometry get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return switch (kind(index)) {
+            case POINT -> new PointGeometry(getName(index), x1s.get(index), y1s.get(index));
+            case SEGMENT -> new SegmentGeometry(x1s.get(index), y1s.get(index), x2s.get(index), y2s.get(index));
+            default -> getGraph(index);
+        };
+    }
+
+    public byte kind(int index) {
+        return kinds.get(index);
+    }
+
+    // A point's x or a segment's first x
+    public int x1(int index) {
+        return x1s.get(index);
+    }
+
+    public int y1(int index) {
+        return y1s.get(index);
+    }
+
+    public int x2(int index) {
+        return x2s.get(index);
+    }
+
+    public int y2(int index) {
+        return y2s.get(index);
+    }
+
+    public String getName(int index) {
+        return names.get(x2s.get(index));
+    }
+
+    public CompleteGraphGeometry getGraph(int index) {
+        return graphs.get(x1s.get(index));
+    }
+
+    // The name and graph tables, for SceneFile
+    int getNameCount() {
+        return names.size();
+    }
+
+    String nameAt(int id) {
+        return names.get(id);
+    }
+
+    int getGraphCount() {
+        return graphs.size();
+    }
+
+    CompleteGraphGeometry graphAt(int id) {
+        return graphs.get(id);
+    }
+
+    // Number of raw operations that produced the shape at the given position
+    public int getReferences(int index) {
+        int count = references.get(index);
+        return count == MAX_REFERENCES ? largeReferences.get(index) : count;
+    }
+
+    private void setReferences(int index, int count) {
+        if (count >= MAX_REFERENCES) {
+            references.put(index, (char) MAX_REFERENCES);
+            largeReferences.put(index, count);
+        } else {
+            references.put(index, (char) count);
+        }
+    }
+
+    public int getReferences(Geometry geometry) {
+        int index = indexOf(geometry);
+        return index >= 0 ? getReferences(index) : 0;
+    }
+
+    // Shapes are unique, so the lookup table answers this without a scan
+    @Override
+    public int indexOf(Object object) {
+        int slot;
+        if (object instanceof PointGeometry point) {
+            Integer id = findName(point.getName());
+            if (id == null) return -1;
+            slot = find(POINT, point.getX(), point.getY(), id, 0);
+        } else if (object instanceof SegmentGeometry segment) {
+            slot = find(SEGMENT, segment.getX1(), segment.getY1(), segment.getX2(), segment.getY2());
+        } else if (object instanceof CompleteGraphGeometry graph) {
+            int stored = graphs.indexOf(graph);
+            if (stored < 0) return -1;
+            slot = find(GRAPH, stored, 0, 0, 0);
+        } else {
+            return -1;
+        }
+        return slots[slot] - 1;
+    }
+
+    @Override
+    public int lastIndexOf(Object object) {
+        return indexOf(object);
+    }
+
+    // Shapes added in total, duplicates included
+    public long getAddedCount() {
+        return added;
+    }
+}
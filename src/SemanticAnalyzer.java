@@ -1,157 +1,269 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
 
+/**
+ * Checks a script against a symbol table, one operation at a time.
+ * <p>
+ * Standalone, it walks a finished tree with a table of its own. A parser with
+ * semantic checks enabled instead hands it each operation as soon as it is
+ * built, sharing the parser's table, so the script is validated in the same
+ * pass that parses it.
+ */
 class SemanticAnalyzer {
-    private Set<String> pointNames;
-    private Set<String> lineNames;
+    private final SymbolTable symbols;
+    private final List<Diagnostic> diagnostics;
+    private final boolean printErrors;
 
     public SemanticAnalyzer() {
-        this.pointNames = new HashSet<>();
-        this.lineNames = new HashSet<>();
+        this(true);
     }
 
-    public void analyze(Node node) {
-        traverseNode(node);
-    }
-
-    private void traverseNode(Node node) {
-        switch (node.getType()) {
-            case "PutPoint":
-                handlePutPoint(node);
-                break;
-            case "ConnectPoints":
-                handleConnectPoints(node);
-                break;
-            case "DrawSegment":
-                handleDrawSegment(node);
-                break;
-            case "BuildTriangle":
-                handleBuildTriangle(node);
-                break;
-            case "BuildSquare":
-                handleBuildSquare(node);
-                break;
-            case "DrawPerpendicular":
-                handleDrawPerpendicular(node);
-                break;
-            default:
-                for (Node child : node.getChildren()) {
-                    traverseNode(child);
-                }
-                break;
-        }
+    // Batch callers pass false and read getDiagnostics() instead of the console
+    public SemanticAnalyzer(boolean printErrors) {
+        this(new SymbolTable(), printErrors);
     }
 
-    private void handlePutPoint(Node node) {
-        String pointName = node.getChildren().get(0).getType();
-        if (pointNames.contains(pointName)) {
-            System.out.println("Semantic Error: Point " + pointName + " is already defined.");
-        }
-        pointNames.add(pointName);
+    public SemanticAnalyzer(SymbolTable symbols, boolean printErrors) {
+        this(symbols, new ArrayList<>(), printErrors);
     }
 
-    private void handleConnectPoints(Node node) {
-        for (Node child : node.getChildren()) {
-            if (child.getType().equals("DrawSegment")) continue;
-            String pointName = child.getChildren().get(0).getType();
-            String pointCoords = child.getChildren().get(1).getType();
-            System.out.println(pointCoords+""+pointName);
-            if (!pointNames.contains(pointName) && pointCoords == null) {
-                System.out.println("Semantic Error: Point " + pointName + " is not defined.");
-            }
-        }
+    // Appends to the given list, so a parser can keep its syntax errors in the same one
+    public SemanticAnalyzer(SymbolTable symbols, List<Diagnostic> diagnostics, boolean printErrors) {
+        this.symbols = symbols;
+        this.diagnostics = diagnostics;
+        this.printErrors = printErrors;
     }
 
-    private void handleDrawSegment(Node node) {
-        String pointA = node.getChildren().get(0).getType().split(" ")[0];
-        String pointAC = node.getChildren().get(0).getType().split(" ")[1];
-        String pointB = node.getChildren().get(1).getType().split(" ")[0];
-        String pointBC = node.getChildren().get(1).getType().split(" ")[1];
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
 
-        if ((!pointNames.contains(pointA) || !pointNames.contains(pointB)) && (pointBC == null && pointAC == null)) {
-            System.out.println("Semantic Error: Points " + pointA + " or " + pointB + " are not defined for segment.");
+    private void error(Diagnostic.Kind kind, int statement, String subject) {
+        Diagnostic diagnostic = new Diagnostic(kind, statement, subject);
+        diagnostics.add(diagnostic);
+        if (printErrors) {
+            System.out.println(diagnostic.getMessage());
         }
-
-        lineNames.add(pointA + pointB);
     }
 
-    private void handleDrawPerpendicular(Node node) {
-        String pointA = node.getChildren().get(0).getType().split(" ")[0];
-        String pointAC = node.getChildren().get(0).getType().split(" ")[1];
-        String pointB = node.getChildren().get(1).getType().split(" ")[0];
-        String pointBC = node.getChildren().get(1).getType().split(" ")[1];
+    public void analyze(Node node) {
+        PhaseEvent event = CompilerMetrics.begin(CompilerMetrics.Phase.SEMANTIC);
+        int errors = diagnostics.size();
+        int statements = 1;
+        if (node instanceof ProgramNode program) {
+            List<Node> operations = program.getOperations();
+            statements = operations.size();
+            for (int i = 0; i < operations.size(); i++) {
+                check(operations.get(i), i);
+            }
+        } else {
+            check(node, 0);
+        }
+        CompilerMetrics.analyzed(event, statements, diagnostics.size() - errors);
+    }
 
-        if ((!pointNames.contains(pointA) || !pointNames.contains(pointB)) && (pointBC == null && pointAC == null)) {
-            System.out.println("Semantic Error: Points " + pointA + " or " + pointB + " are not defined for perpendicular line.");
+    // Every point reaching the tree already has resolved coordinates, so only
+    // redefinitions, unknown lines and degenerate squares are left to check here.
+    public void check(Node operation, int statement) {
+        if (operation instanceof PutPointNode putPoint) {
+            handlePutPoint(putPoint, statement);
+        } else if (operation instanceof DrawSegmentNode drawSegment) {
+            symbols.defineLine(drawSegment.getA().getName(), drawSegment.getB().getName());
+        } else if (operation instanceof DrawPerpendicularNode drawPerpendicular) {
+            handleDrawPerpendicular(drawPerpendicular, statement);
+        } else if (operation instanceof BuildSquareNode buildSquare) {
+            handleBuildSquare(buildSquare, statement);
+        } else if (operation instanceof ConnectPointsNode connectPoints) {
+            symbols.defineCompleteGraph(connectPoints.getPoints());
+        } else if (operation instanceof BuildTriangleNode) {
+            // Nothing to check: all points are resolved by the parser
+        } else {
+            for (Node child : operation.getChildren()) {
+                check(child, statement);
+            }
         }
+    }
 
-        String lineName = pointA + pointB;
-        if (!lineNames.contains(lineName)) {
-            System.out.println("Semantic Error: Line " + lineName + " is not defined for perpendicular line.");
+    private void handlePutPoint(PutPointNode node, int statement) {
+        String pointName = node.getPoint().getName();
+        if (!symbols.placePoint(pointName)) {
+            error(Diagnostic.Kind.POINT_REDEFINED, statement, pointName);
         }
     }
 
-    private void handleBuildTriangle(Node node) {
-        List<Node> points = node.getChildren();
-        if (points.size() != 3) {
-            System.out.println("Semantic Error: Triangle requires 3 points.");
+    private void handleDrawPerpendicular(DrawPerpendicularNode node, int statement) {
+        String a = node.getA().getName();
+        String b = node.getB().getName();
+        if (!symbols.hasLine(a, b)) {
+            error(Diagnostic.Kind.LINE_UNDEFINED, statement, a + b);
         }
+    }
 
-        for (Node point : points) {
-            String pointName = point.getType().split(" ")[0];
-            String pointCoords = point.getType().split(" ")[1];
-            if (!pointNames.contains(pointName) && pointCoords == null) {
-                System.out.println("Semantic Error: Point " + pointName + " is not defined for triangle.");
-            }
+    private void handleBuildSquare(BuildSquareNode node, int statement) {
+        String a = node.getA().getName();
+        String b = node.getB().getName();
+        String c = node.getC().getName();
+        String d = node.getD().getName();
+        if (a.equals(b) || a.equals(c) || a.equals(d) || b.equals(c) || b.equals(d) || c.equals(d)) {
+            error(Diagnostic.Kind.SQUARE_POINTS_NOT_UNIQUE, statement, a + b);
         }
     }
 
-    private void handleBuildSquare(Node node) {
-        List<Node> children = node.getChildren();
-        int putPointCount = 0;
-        int drawSegmentCount = 0;
-        Set<String> squarePoints = new HashSet<>();
 
-        for (Node child : children) {
-            String action = child.getType();
+}
 
-            if (action.startsWith("PutPoint")) {
-                String pointName = child.getType().split(": ")[1].split(" ")[0];
-                String pointCoords = child.getType().split(": ")[1].split(" ")[1];
+/**
+ * Names known to a script: points with their coordinates, the points placed
+ * with "поставити точку", and the lines drawn as segments or joined by
+ * "зʼєднати точки".
+ * <p>
+ * The point map may be supplied by the caller, so a table can be carried from
+ * one parse into the next.
+ */
+class SymbolTable {
+    private final Map<String, PointRef> points;
+    private final Set<String> placedPoints = new HashSet<>();
+    private final Set<String> lines = new HashSet<>();
+    // Point name to the ids of the "зʼєднати точки" lists it is in, ascending;
+    // any two points of one list are joined without storing the pairs
+    private final Map<String, List<Integer>> graphs = new HashMap<>();
+    private int graphCount;
 
-                if (!pointNames.contains(pointName) && pointCoords == null) {
-                    System.out.println("Semantic Error: Point " + pointName + " is not defined.");
-                }
+    public SymbolTable() {
+        this(new HashMap<>());
+    }
 
-                squarePoints.add(pointName);
-                putPointCount++;
-            }
+    public SymbolTable(Map<String, PointRef> points) {
+        this.points = points;
+    }
 
-            else if (action.startsWith("DrawSegment")) {
-                String[] points = child.getType().split(": ")[1].split(" to ");
-                String pointA = points[0].split(" ")[0];
-                String pointB = points[1].split(" ")[0];
-                String pointAC = points[0].split(" ")[1];
-                String pointBC = points[1].split(" ")[1];
+    public Map<String, PointRef> getPoints() {
+        return points;
+    }
+
+    public PointRef getPoint(String name) {
+        return points.get(name);
+    }
 
-                if ((!pointNames.contains(pointA) || !pointNames.contains(pointB)) && (pointBC == null && pointAC == null)) {
-                    System.out.println("Semantic Error: Points " + pointA + " or " + pointB + " are not defined.");
-                }
+    public void definePoint(PointRef point) {
+        points.put(point.getName(), point);
+    }
 
-                drawSegmentCount++;
+    // Returns false if the point had already been placed
+    public boolean placePoint(String name) {
+        return placedPoints.add(name);
+    }
+
+    public void defineLine(String a, String b) {
+        lines.add(a + b);
+    }
+
+    public void defineCompleteGraph(List<PointRef> points) {
+        int graph = graphCount++;
+        for (PointRef point : points) {
+            List<Integer> ids = graphs.computeIfAbsent(point.getName(), k -> new ArrayList<>(1));
+            if (ids.isEmpty() || ids.get(ids.size() - 1) != graph) {
+                ids.add(graph);
             }
         }
-        if (putPointCount != 4) {
-            System.out.println("Semantic Error: Square requires exactly 4 PutPoint actions, found " + putPointCount);
-        }
-        if (drawSegmentCount != 4) {
-            System.out.println("Semantic Error: Square requires exactly 4 DrawSegment actions, found " + drawSegmentCount);
+    }
+
+    public boolean hasLine(String a, String b) {
+        return lines.contains(a + b) || inSameGraph(a, b);
+    }
+
+    private boolean inSameGraph(String a, String b) {
+        List<Integer> first = graphs.get(a);
+        List<Integer> second = graphs.get(b);
+        if (first == null || second == null) return false;
+        int i = 0, j = 0;
+        while (i < first.size() && j < second.size()) {
+            int x = first.get(i), y = second.get(j);
+            if (x == y) return true;
+            if (x < y) i++;
+            else j++;
         }
-        if (squarePoints.size() != 4) {
-            System.out.println("Semantic Error: Square requires 4 unique points.");
+        return false;
+    }
+}
+
+/**
+ * One semantic error, or a syntax error recorded by a recovering parser. The
+ * message is only formatted when asked for, so collecting diagnostics for
+ * large batches costs one small object each.
+ */
+class Diagnostic {
+    enum Kind {
+        POINT_REDEFINED,
+        LINE_UNDEFINED,
+        SQUARE_POINTS_NOT_UNIQUE,
+        UNEXPECTED_TOKEN,
+        UNKNOWN_OPERATION,
+        BAD_LINE_NAME,
+        BAD_COORDINATES;
+
+        boolean isSyntaxError() {
+            return ordinal() >= UNEXPECTED_TOKEN.ordinal();
         }
     }
 
+    private final Kind kind;
+    private final int statement;
+    private final String subject;
+    private final TokenKind expected;
+
+    public Diagnostic(Kind kind, int statement, String subject) {
+        this(kind, statement, subject, null);
+    }
+
+    public Diagnostic(Kind kind, int statement, String subject, TokenKind expected) {
+        this.kind = kind;
+        this.statement = statement;
+        this.subject = subject;
+        this.expected = expected;
+    }
 
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isSyntaxError() {
+        return kind.isSyntaxError();
+    }
+
+    // Zero-based index of the operation in the script
+    public int getStatement() {
+        return statement;
+    }
+
+    // The point or line name the error is about; for a syntax error, the token found
+    public String getSubject() {
+        return subject;
+    }
+
+    // The token kind a syntax error wanted in place of the subject, or null
+    public TokenKind getExpected() {
+        return expected;
+    }
+
+    public String getMessage() {
+        return switch (kind) {
+            case POINT_REDEFINED -> "Semantic Error: Point " + subject + " is already defined.";
+            case LINE_UNDEFINED -> "Semantic Error: Line " + subject + " is not defined for perpendicular line.";
+            case SQUARE_POINTS_NOT_UNIQUE -> "Semantic Error: Square requires 4 unique points.";
+            case UNEXPECTED_TOKEN -> "Syntax Error: Unexpected token " + subject + ", expected " + expected + ".";
+            case UNKNOWN_OPERATION -> "Syntax Error: Unknown operation " + subject + ".";
+            case BAD_LINE_NAME -> "Syntax Error: Line name " + subject + " must name two points.";
+            case BAD_COORDINATES -> "Syntax Error: Coordinates " + subject + " must be whole numbers within the int range.";
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "statement " + (statement + 1) + ": " + getMessage();
+    }
 }
@@ -0,0 +1,398 @@
+import java.awt.geom.Rectangle2D;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the world bounds of a scene.
+ * <p>
+ * Every geometry is filed under the cells it touches: points under one cell,
+ * segments under the cells along the line, so a long diagonal does not fill
+ * its whole bounding box. Cells are stored as one flat array of geometry
+ * indices with per-cell offsets, built in two passes.
+ * <p>
+ * A complete graph has edges running everywhere between its vertices, so it is
+ * not filed in cells at all. Such shapes are kept in a short list and tested
+ * against each query by their bounds.
+ * <p>
+ * The cell tables are int buffers, so an index saved by SceneFile is used
+ * straight from the mapped file instead of being rebuilt.
+ * <p>
+ * Shapes the store moves or adds by a move are kept in a second list, tested
+ * by their bounds like the complete graphs, and skipped where the cells still
+ * hold them. Past MAX_MOVED the store builds a new index instead.
+ */
+class SpatialIndex {
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+    // Average number of cells a shape may be filed under before cells are made coarser
+    private static final int CELLS_PER_SHAPE = 8;
+    // Moved shapes tested one by one before a rebuild pays off, at least, or this fraction of all
+    private static final int MAX_MOVED = 1024;
+    private static final int MOVED_FRACTION = 8;
+
+    private final SceneStore scene;
+    // Grows when a move adds a shape to the store
+    private int size;
+    private final Rectangle2D bounds;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final IntBuffer cellStart;
+    private final IntBuffer cellItems;
+    // Shapes not filed in cells, in list order
+    private final int[] spanning;
+    // Shapes moved since the build, in the order they first moved; flagged in isMoved
+    private int[] moved = new int[0];
+    private int movedCount;
+    private boolean[] isMoved;
+
+    // Marks geometries already reported by the current query; allocated by the first query
+    private int[] visited;
+    private int stamp;
+
+    // Build-time scratch: per-cell counts, then write cursors
+    private int[] cursor;
+    private int[] items;
+    private boolean filling;
+
+    interface CellVisitor {
+        void visit(double x0, double y0, double x1, double y1, int count);
+    }
+
+    // Item numbers are positions in the store
+    public SpatialIndex(SceneStore scene) {
+        this.scene = scene;
+        this.size = scene.size();
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        double lineLength = 0;
+        int[] spanningItems = new int[4];
+        int spanningCount = 0;
+        for (int i = 0; i < size; i++) {
+            switch (scene.kind(i)) {
+                case SceneStore.POINT -> {
+                    minX = Math.min(minX, scene.x1(i));
+                    maxX = Math.max(maxX, scene.x1(i));
+                    minY = Math.min(minY, scene.y1(i));
+                    maxY = Math.max(maxY, scene.y1(i));
+                }
+                case SceneStore.SEGMENT -> {
+                    int x1 = scene.x1(i), y1 = scene.y1(i), x2 = scene.x2(i), y2 = scene.y2(i);
+                    minX = Math.min(minX, Math.min(x1, x2));
+                    maxX = Math.max(maxX, Math.max(x1, x2));
+                    minY = Math.min(minY, Math.min(y1, y2));
+                    maxY = Math.max(maxY, Math.max(y1, y2));
+                    lineLength += Math.max(Math.abs(x2 - (double) x1), Math.abs(y2 - (double) y1));
+                }
+                default -> {
+                    Rectangle2D b = scene.getGraph(i).getBounds();
+                    minX = Math.min(minX, b.getMinX());
+                    maxX = Math.max(maxX, b.getMaxX());
+                    minY = Math.min(minY, b.getMinY());
+                    maxY = Math.max(maxY, b.getMaxY());
+                    if (spanningCount == spanningItems.length) {
+                        spanningItems = Arrays.copyOf(spanningItems, spanningCount * 2);
+                    }
+                    spanningItems[spanningCount++] = i;
+                }
+            }
+        }
+        this.bounds = size > 0 ? new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY) : new Rectangle2D.Double();
+        this.spanning = Arrays.copyOf(spanningItems, spanningCount);
+
+        double extent = Math.max(bounds.getWidth(), bounds.getHeight());
+        double byExtent = extent / MAX_CELLS_PER_SIDE;
+        double byLength = Math.min(extent, lineLength / ((double) CELLS_PER_SHAPE * Math.max(1, size - spanning.length)));
+        double cell = Math.max(byExtent, byLength);
+        this.cellSize = cell > 0 ? cell : 1;
+        this.columns = (int) (bounds.getWidth() / cellSize) + 1;
+        this.rows = (int) (bounds.getHeight() / cellSize) + 1;
+
+        cursor = new int[columns * rows];
+        for (int i = 0; i < size; i++) {
+            fileCells(i);
+        }
+        int[] starts = new int[columns * rows + 1];
+        for (int c = 0; c < cursor.length; c++) {
+            starts[c + 1] = starts[c] + cursor[c];
+        }
+        items = new int[starts[cursor.length]];
+        System.arraycopy(starts, 0, cursor, 0, cursor.length);
+        filling = true;
+        for (int i = 0; i < size; i++) {
+            fileCells(i);
+        }
+        this.cellStart = IntBuffer.wrap(starts);
+        this.cellItems = IntBuffer.wrap(items);
+        cursor = null;
+        items = null;
+    }
+
+    // An index read back by SceneFile; the tables are those getCellStarts and getCellItems returned
+    SpatialIndex(SceneStore scene, Rectangle2D bounds, double cellSize, int columns, int rows,
+                 IntBuffer cellStart, IntBuffer cellItems, int[] spanning) {
+        this.scene = scene;
+        this.size = scene.size();
+        this.bounds = bounds;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStart = cellStart;
+        this.cellItems = cellItems;
+        this.spanning = spanning;
+    }
+
+    // Number of geometries the index covers, counting ones a move added
+    public int size() {
+        return size;
+    }
+
+    // Called by the store after shape item changed position, or was added by a move as item size()
+    void moved(int item) {
+        if (item == size) size++;
+        if (isMoved == null || item >= isMoved.length) {
+            isMoved = Arrays.copyOf(isMoved != null ? isMoved : new boolean[0], Math.max(size, item + 1));
+        }
+        if (isMoved[item]) return;
+        isMoved[item] = true;
+        if (movedCount == moved.length) moved = Arrays.copyOf(moved, Math.max(16, movedCount * 2));
+        moved[movedCount++] = item;
+    }
+
+    // True once testing the moved shapes one by one costs more than a new index would save
+    boolean isStale() {
+        return movedCount > Math.max(MAX_MOVED, size / MOVED_FRACTION);
+    }
+
+    // False when shapes moved since the build, so the cell tables are not the whole story
+    boolean isExact() {
+        return movedCount == 0;
+    }
+
+    private boolean isMoved(int item) {
+        return isMoved != null && item < isMoved.length && isMoved[item];
+    }
+
+    public Rectangle2D getBounds() {
+        return bounds;
+    }
+
+    // The grid layout and tables, for SceneFile
+    double getCellSize() {
+        return cellSize;
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    IntBuffer getCellStarts() {
+        return cellStart.duplicate();
+    }
+
+    IntBuffer getCellItems() {
+        return cellItems.duplicate();
+    }
+
+    int[] getSpanning() {
+        return spanning;
+    }
+
+    /**
+     * Indices of the geometries whose cells intersect the area, in list order,
+     * so drawing them keeps the original stacking.
+     */
+    public int[] query(Rectangle2D area) {
+        int[] result = new int[16];
+        int count = 0;
+        if (overlaps(area)) {
+            nextStamp();
+            int c0 = column(area.getMinX()), c1 = column(area.getMaxX());
+            int r0 = row(area.getMinY()), r1 = row(area.getMaxY());
+            for (int row = r0; row <= r1; row++) {
+                for (int column = c0; column <= c1; column++) {
+                    int cell = row * columns + column;
+                    for (int k = cellStart.get(cell), end = cellStart.get(cell + 1); k < end; k++) {
+                        int item = cellItems.get(k);
+                        if (visited[item] == stamp || isMoved(item)) continue;
+                        visited[item] = stamp;
+                        if (count == result.length) result = Arrays.copyOf(result, count * 2);
+                        result[count++] = item;
+                    }
+                }
+            }
+        }
+        for (int item : querySpanning(area)) {
+            if (count == result.length) result = Arrays.copyOf(result, count * 2);
+            result[count++] = item;
+        }
+        Arrays.sort(result, 0, count);
+        return Arrays.copyOf(result, count);
+    }
+
+    // Indices of the shapes kept out of the cells whose bounds meet the area: complete graphs and moved shapes
+    public int[] querySpanning(Rectangle2D area) {
+        int[] result = new int[spanning.length + movedCount];
+        int count = 0;
+        for (int item : spanning) {
+            if (!isMoved(item) && meets(item, area)) result[count++] = item;
+        }
+        for (int k = 0; k < movedCount; k++) {
+            if (meets(moved[k], area)) result[count++] = moved[k];
+        }
+        if (movedCount > 0) Arrays.sort(result, 0, count);
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private boolean meets(int item, Rectangle2D area) {
+        double minX, minY, maxX, maxY;
+        switch (scene.kind(item)) {
+            case SceneStore.POINT -> {
+                minX = maxX = scene.x1(item);
+                minY = maxY = scene.y1(item);
+            }
+            case SceneStore.SEGMENT -> {
+                minX = Math.min(scene.x1(item), scene.x2(item));
+                maxX = Math.max(scene.x1(item), scene.x2(item));
+                minY = Math.min(scene.y1(item), scene.y2(item));
+                maxY = Math.max(scene.y1(item), scene.y2(item));
+            }
+            default -> {
+                Rectangle2D b = scene.getGraph(item).getBounds();
+                minX = b.getMinX();
+                maxX = b.getMaxX();
+                minY = b.getMinY();
+                maxY = b.getMaxY();
+            }
+        }
+        return area.getMaxX() >= minX && area.getMinX() <= maxX && area.getMaxY() >= minY && area.getMinY() <= maxY;
+    }
+
+    // Cell entries in the area, counting a shape once per cell it crosses; costs one read per row.
+    // Shapes kept out of the cells are not counted
+    public long countEntries(Rectangle2D area) {
+        if (!overlaps(area)) return 0;
+        long count = 0;
+        int c0 = column(area.getMinX()), c1 = column(area.getMaxX());
+        for (int row = row(area.getMinY()); row <= row(area.getMaxY()); row++) {
+            count += cellStart.get(row * columns + c1 + 1) - cellStart.get(row * columns + c0);
+        }
+        return count;
+    }
+
+    // Visits every non-empty cell meeting the area with its world rectangle and entry count
+    public void forEachCell(Rectangle2D area, CellVisitor visitor) {
+        if (!overlaps(area)) return;
+        int c0 = column(area.getMinX()), c1 = column(area.getMaxX());
+        for (int row = row(area.getMinY()); row <= row(area.getMaxY()); row++) {
+            double y0 = bounds.getMinY() + row * cellSize;
+            for (int column = c0; column <= c1; column++) {
+                int cell = row * columns + column;
+                int count = cellStart.get(cell + 1) - cellStart.get(cell);
+                if (count == 0) continue;
+                double x0 = bounds.getMinX() + column * cellSize;
+                visitor.visit(x0, y0, x0 + cellSize, y0 + cellSize, count);
+            }
+        }
+    }
+
+    /**
+     * Geometry closest to (x, y) within radius, or null. Points win over
+     * segments, so hovering a vertex reports the vertex.
+     */
+    public Geometry nearest(double x, double y, double radius) {
+        int nearest = nearestItem(x, y, radius);
+        return nearest >= 0 ? scene.get(nearest) : null;
+    }
+
+    // As nearest, but the shape's position in the store, or -1
+    public int nearestItem(double x, double y, double radius) {
+        Rectangle2D area = new Rectangle2D.Double(x - radius, y - radius, 2 * radius, 2 * radius);
+        int nearestPoint = -1, nearestSegment = -1;
+        double pointDistance = radius, segmentDistance = radius;
+        for (int item : query(area)) {
+            byte kind = scene.kind(item);
+            if (kind == SceneStore.POINT) {
+                double distance = Math.hypot(x - scene.x1(item), y - scene.y1(item));
+                if (distance <= pointDistance) {
+                    pointDistance = distance;
+                    nearestPoint = item;
+                }
+                continue;
+            }
+            double distance = kind == SceneStore.SEGMENT
+                    ? SegmentGeometry.distance(x, y, scene.x1(item), scene.y1(item), scene.x2(item), scene.y2(item))
+                    : scene.getGraph(item).distanceTo(x, y, segmentDistance);
+            if (distance <= segmentDistance) {
+                segmentDistance = distance;
+                nearestSegment = item;
+            }
+        }
+        return nearestPoint >= 0 ? nearestPoint : nearestSegment;
+    }
+
+    private boolean overlaps(Rectangle2D area) {
+        return size > 0
+                && area.getMaxX() >= bounds.getMinX() && area.getMinX() <= bounds.getMaxX()
+                && area.getMaxY() >= bounds.getMinY() && area.getMinY() <= bounds.getMaxY();
+    }
+
+    private void nextStamp() {
+        if (visited == null) {
+            visited = new int[size];
+        }
+        if (++stamp == 0) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+    }
+
+    private void fileCells(int item) {
+        byte kind = scene.kind(item);
+        if (kind == SceneStore.SEGMENT) {
+            fileLine(item, scene.x1(item), scene.y1(item), scene.x2(item), scene.y2(item));
+        } else if (kind == SceneStore.POINT) {
+            file(item, row(scene.y1(item)) * columns + column(scene.x1(item)));
+        }
+    }
+
+    // Walks the columns the line crosses and files the rows it spans inside each one
+    private void fileLine(int item, double x1, double y1, double x2, double y2) {
+        if (x1 > x2) {
+            double t = x1; x1 = x2; x2 = t;
+            t = y1; y1 = y2; y2 = t;
+        }
+        int c0 = column(x1), c1 = column(x2);
+        for (int column = c0; column <= c1; column++) {
+            double left = Math.max(x1, bounds.getMinX() + column * cellSize);
+            double right = Math.min(x2, bounds.getMinX() + (column + 1) * cellSize);
+            double yLeft = x1 == x2 ? y1 : y1 + (y2 - y1) * (left - x1) / (x2 - x1);
+            double yRight = x1 == x2 ? y2 : y1 + (y2 - y1) * (right - x1) / (x2 - x1);
+            int top = row(Math.min(yLeft, yRight));
+            int bottom = row(Math.max(yLeft, yRight));
+            for (int row = top; row <= bottom; row++) {
+                file(item, row * columns + column);
+            }
+        }
+    }
+
+    private void file(int item, int cell) {
+        if (filling) {
+            items[cursor[cell]++] = item;
+        } else {
+            cursor[cell]++;
+        }
+    }
+
+    private int column(double x) {
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor((x - bounds.getMinX()) / cellSize)));
+    }
+
+    private int row(double y) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((y - bounds.getMinY()) / cellSize)));
+    }
+}
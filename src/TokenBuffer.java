@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays token storage: one int per token for the kind and two for
+ * the [start, end) range in the source. Lexeme strings are created lazily.
+ */
+class TokenBuffer {
+    private final String source;
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    public TokenBuffer(String source) {
+        this.source = source;
+        int capacity = Math.max(16, source.length() / 6);
+        this.kinds = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+    }
+
+    void add(TokenKind kind, int start, int end) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        kinds[size] = kind.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int kindOrdinal(int index) {
+        return kinds[index];
+    }
+
+    public TokenKind kind(int index) {
+        return TokenKind.of(kinds[index]);
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int end(int index) {
+        return ends[index];
+    }
+
+    public String text(int index) {
+        return source.substring(starts[index], ends[index]);
+    }
+
+    public boolean textEquals(int index, String text) {
+        return ends[index] - starts[index] == text.length()
+                && source.startsWith(text, starts[index]);
+    }
+
+    public boolean textStartsWith(int index, String prefix) {
+        return LexicalAnalyser.regionStartsWith(source, starts[index], ends[index], prefix);
+    }
+
+    public Lexeme get(int index) {
+        return new Lexeme(text(index), kind(index));
+    }
+
+    public TokenStream stream() {
+        return new TokenBufferStream(this);
+    }
+}
+
+/**
+ * Cursor over a TokenBuffer. The parser-facing queries compare ints and source
+ * characters directly; only peek/next/nextText allocate.
+ */
+class TokenBufferStream implements TokenStream {
+    private final TokenBuffer buffer;
+    private int index;
+
+    public TokenBufferStream(TokenBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public Lexeme peek(int offset) {
+        int i = index + offset;
+        return i < buffer.size() ? buffer.get(i) : null;
+    }
+
+    @Override
+    public Lexeme next() {
+        return index < buffer.size() ? buffer.get(index++) : null;
+    }
+
+    @Override
+    public TokenKind peekKind() {
+        return index < buffer.size() ? buffer.kind(index) : null;
+    }
+
+    @Override
+    public boolean peekIs(String text) {
+        return index < buffer.size() && buffer.textEquals(index, text);
+    }
+
+    @Override
+    public boolean peekStartsWith(String prefix) {
+        return index < buffer.size() && buffer.textStartsWith(index, prefix);
+    }
+
+    @Override
+    public void skip() {
+        if (index < buffer.size()) index++;
+    }
+
+    @Override
+    public String nextText() {
+        return buffer.text(index++);
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Token kinds produced by LexicalAnalyser, in the priority order of its pattern table.
+ */
+enum TokenKind {
+    CONDITION_SIGN,
+    ARITHMETIC_OPERATOR,
+    DELIMITER,
+    BUILTIN_FUNCTION,
+    FLOAT,
+    INTEGER,
+    COORDINATES,
+    RESERVED_WORD,
+    GEOMETRY,
+    NAME,
+    IDENTIFIER,
+    ERROR;
+
+    private static final TokenKind[] VALUES = values();
+
+    static TokenKind of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
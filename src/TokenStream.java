@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Pull-based source of lexemes for the parser.
+ * peek returns null once the input is exhausted. Closing a stream closes the
+ * input it reads, if any.
+ */
+interface TokenStream extends AutoCloseable {
+    int LOOKAHEAD = 4;
+
+    Lexeme peek(int offset);
+
+    Lexeme next();
+
+    default Lexeme peek() {
+        return peek(0);
+    }
+
+    // The methods below let compact streams answer the parser without creating Lexeme objects
+
+    default TokenKind peekKind() {
+        Lexeme lexeme = peek();
+        return lexeme == null ? null : lexeme.getKind();
+    }
+
+    default boolean peekIs(String text) {
+        Lexeme lexeme = peek();
+        return lexeme != null && lexeme.getLexeme().equals(text);
+    }
+
+    default boolean peekStartsWith(String prefix) {
+        Lexeme lexeme = peek();
+        return lexeme != null && lexeme.getLexeme().startsWith(prefix);
+    }
+
+    default void skip() {
+        next();
+    }
+
+    default String nextText() {
+        return next().getLexeme();
+    }
+
+    @Override
+    default void close() {
+    }
+}
+
+class ListTokenStream implements TokenStream {
+    private final List<Lexeme> tokens;
+    private int index;
+
+    public ListTokenStream(List<Lexeme> tokens) {
+        this.tokens = tokens;
+        this.index = 0;
+    }
+
+    @Override
+    public Lexeme peek(int offset) {
+        int i = index + offset;
+        return i < tokens.size() ? tokens.get(i) : null;
+    }
+
+    @Override
+    public Lexeme next() {
+        return index < tokens.size() ? tokens.get(index++) : null;
+    }
+}
+
+/**
+ * Lexes a Reader incrementally. Only the current word and a ring of
+ * LOOKAHEAD lexemes are held in memory, whatever the size of the input.
+ * Produces the same lexemes as LexicalAnalyser.analyse on the full text.
+ */
+class ReaderTokenStream implements TokenStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPos;
+    private int bufferEnd;
+    private boolean eof;
+
+    private final Lexeme[] window = new Lexeme[LOOKAHEAD];
+    private int windowStart;
+    private int windowSize;
+
+    private final StringBuilder word = new StringBuilder();
+    private boolean started;
+    private long chars;
+    private int lexemes;
+
+    public ReaderTokenStream(Reader reader) {
+        this.reader = reader;
+    }
+
+    // Characters read from the input so far
+    public long getCharCount() {
+        return chars;
+    }
+
+    // Lexemes produced so far, including those still in the lookahead ring
+    public int getLexemeCount() {
+        return lexemes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Lexeme peek(int offset) {
+        if (offset >= LOOKAHEAD) {
+            throw new IllegalArgumentException("Lookahead is limited to " + LOOKAHEAD + " tokens");
+        }
+        while (windowSize <= offset) {
+            Lexeme lexeme = readLexeme();
+            if (lexeme == null) return null;
+            lexemes++;
+            window[(windowStart + windowSize) % LOOKAHEAD] = lexeme;
+            windowSize++;
+        }
+        return window[(windowStart + offset) % LOOKAHEAD];
+    }
+
+    @Override
+    public Lexeme next() {
+        Lexeme lexeme = peek(0);
+        if (lexeme != null) {
+            window[windowStart] = null;
+            windowStart = (windowStart + 1) % LOOKAHEAD;
+            windowSize--;
+        }
+        return lexeme;
+    }
+
+    private Lexeme readLexeme() {
+        int c = read();
+        if (!started) {
+            started = true;
+            if (c < 0) return new Lexeme("", "ERROR");
+            if (LexicalAnalyser.isWhitespace(c)) {
+                // split() keeps an empty first word when the text starts with whitespace
+                while (c >= 0 && LexicalAnalyser.isWhitespace(c)) c = read();
+                if (c < 0) return null;
+                unread();
+                return new Lexeme("", "ERROR");
+            }
+        }
+
+        while (c >= 0 && LexicalAnalyser.isWhitespace(c)) c = read();
+        if (c < 0) return null;
+
+        word.setLength(0);
+        while (c >= 0 && !LexicalAnalyser.isWhitespace(c)) {
+            word.append((char) c);
+            c = read();
+        }
+        String text = word.toString();
+        return new Lexeme(text, LexicalAnalyser.classify(text));
+    }
+
+    private int read() {
+        if (bufferPos == bufferEnd) {
+            if (eof) return -1;
+            try {
+                int n = reader.read(buffer, 0, BUFFER_SIZE);
+                if (n <= 0) {
+                    eof = true;
+                    return -1;
+                }
+                bufferPos = 0;
+                bufferEnd = n;
+                chars += n;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return buffer[bufferPos++];
+    }
+
+    private void unread() {
+        bufferPos--;
+    }
+}
+
+/**
+ * Reader over a memory-mapped UTF-8 file. The file is mapped in windows so
+ * inputs larger than 2 GB work and only the pages being decoded are resident.
+ */
+class MappedFileReader extends Reader {
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private ByteBuffer window;
+    private long windowOffset;
+    // Set once the decoder has been flushed; it must not be used after that
+    private boolean eof;
+
+    public MappedFileReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        map(0);
+    }
+
+    private void map(long offset) throws IOException {
+        windowOffset = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, size - offset));
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (eof) return -1;
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            boolean last = windowOffset + window.limit() >= size;
+            CoderResult result = decoder.decode(window, out, last);
+            if (result.isError()) result.throwException();
+            if (out.position() > off) break;
+            if (last) {
+                decoder.flush(out);
+                eof = true;
+                break;
+            }
+            // Remap from the first byte the decoder has not consumed yet
+            map(windowOffset + window.position());
+        }
+        int n = out.position() - off;
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,71 @@
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * The one transform between world (grid) coordinates and pixels: a uniform
+ * scale in pixels per grid unit and the pixel position of the world origin.
+ * World y points up, pixel y points down.
+ */
+class Viewport {
+    public static final double MIN_SCALE = 1e-3;
+    public static final double MAX_SCALE = 1e5;
+
+    private double scale;
+    private double originX;
+    private double originY;
+
+    public Viewport(double scale, double originX, double originY) {
+        this.scale = scale;
+        this.originX = originX;
+        this.originY = originY;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public double toScreenX(double x) {
+        return originX + x * scale;
+    }
+
+    public double toScreenY(double y) {
+        return originY - y * scale;
+    }
+
+    public double toWorldX(double px) {
+        return (px - originX) / scale;
+    }
+
+    public double toWorldY(double py) {
+        return (originY - py) / scale;
+    }
+
+    // World area shown by the given pixel rectangle
+    public Rectangle2D toWorld(Rectangle screen) {
+        double x0 = toWorldX(screen.x);
+        double y1 = toWorldY(screen.y);
+        return new Rectangle2D.Double(x0, y1 - screen.height / scale, screen.width / scale, screen.height / scale);
+    }
+
+    public void pan(double dx, double dy) {
+        originX += dx;
+        originY += dy;
+    }
+
+    // Scales by factor while keeping the world point under (px, py) in place
+    public void zoom(double factor, double px, double py) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        factor = newScale / scale;
+        originX = px - (px - originX) * factor;
+        originY = py - (py - originY) * factor;
+        scale = newScale;
+    }
+}
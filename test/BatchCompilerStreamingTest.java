@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Scripts streamed from disk compile to the same output and counts as scripts read whole
+class BatchCompilerStreamingTest {
+    private static final String[] SCRIPTS = {
+            "поставити точку A (1,2) ; поставити точку B ; провести відрізок через дві точки A та B ; побудувати квадрат зі стороною AB",
+            " зʼєднати точки A (1,1) , B (-5,6) , C (9,2) ; провести пряму , перпендикулярну до відрізка AB ",
+            "поставити точку A (1.5,2) ; стерти все ; поставити точку A ; поставити точку A",
+    };
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("streaming");
+        try {
+            List<Path> scripts = new ArrayList<>();
+            for (int i = 0; i < SCRIPTS.length; i++) {
+                Path script = directory.resolve("script" + i + ".txt");
+                Files.writeString(script, SCRIPTS[i], StandardCharsets.UTF_8);
+                scripts.add(script);
+            }
+            for (boolean scenes : new boolean[]{false, true}) {
+                List<BatchCompiler.ScriptResult> whole = compile(directory.resolve("whole" + scenes), scripts, Long.MAX_VALUE, scenes);
+                List<BatchCompiler.ScriptResult> streamed = compile(directory.resolve("streamed" + scenes), scripts, 0, scenes);
+                for (int i = 0; i < scripts.size(); i++) {
+                    BatchCompiler.ScriptResult a = whole.get(i);
+                    BatchCompiler.ScriptResult b = streamed.get(i);
+                    String name = scripts.get(i).getFileName().toString();
+                    Check.equal(a.failure, b.failure, name + " failure");
+                    Check.equal(a.bytes, b.bytes, name + " chars");
+                    Check.equal(a.tokens, b.tokens, name + " tokens");
+                    Check.equal(a.statements, b.statements, name + " statements");
+                    Check.equal(a.geometries, b.geometries, name + " geometries");
+                    Check.equal(a.diagnostics.size(), b.diagnostics.size(), name + " diagnostics");
+                }
+                Check.equal(listing(directory.resolve("whole" + scenes)), listing(directory.resolve("streamed" + scenes)),
+                        "outputs");
+            }
+        } finally {
+            try (Stream<Path> walk = Files.walk(directory)) {
+                walk.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("BatchCompilerStreamingTest passed");
+    }
+
+    private static List<BatchCompiler.ScriptResult> compile(Path output, List<Path> scripts, long threshold, boolean scenes)
+            throws Exception {
+        BatchCompiler compiler = new BatchCompiler(output, 1, CoordinateAllocator.DEFAULT_SEED);
+        compiler.setKeepGoing(true);
+        compiler.setWriteScenes(scenes);
+        compiler.setStreamingThreshold(threshold);
+        return compiler.compile(scripts);
+    }
+
+    // File names with their contents, in name order
+    private static List<String> listing(Path directory) throws IOException {
+        List<String> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            for (Path file : list.sorted().toList()) {
+                files.add(file.getFileName() + ": " + java.util.Arrays.toString(Files.readAllBytes(file)));
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * Assertions for the test classes in this folder. They have no framework: each
+ * has a main that runs its cases and throws AssertionError on the first
+ * failure.
+ */
+final class Check {
+    private Check() {
+    }
+
+    static void isTrue(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    static void equal(Object expected, Object actual, String message) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(message + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    static void near(double expected, double actual, String message) {
+        if (Math.abs(expected - actual) > 1e-9) {
+            throw new AssertionError(message + ": expected " + expected + ", got " + actual);
+        }
+    }
+}
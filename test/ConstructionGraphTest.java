@@ -0,0 +1,63 @@
+import java.util.HashMap;
+import java.util.Map;
+
+class ConstructionGraphTest {
+    private static final String CONSTRUCTIONS = String.join(" ; ",
+            "поставити точку A (%d,%d)",
+            "поставити точку B (10,0)",
+            "побудувати квадрат зі стороною AB",
+            "провести пряму , перпендикулярну до відрізка AB",
+            "провести відрізок через дві точки A та B");
+    // Moving A onto C leaves one distinct position, which a parse does not store;
+    // the segment AB behind it then takes the freed place in the store
+    private static final String COLLAPSING = String.join(" ; ",
+            "зʼєднати точки C (-3,1) , A (%d,%d) , C (-3,1)",
+            "поставити точку B (7,7)",
+            "провести відрізок через дві точки A та B");
+    // The lists share a segment until A moves; on C it joins nothing, so only the other one is left
+    private static final String SHARED_SEGMENT = String.join(" ; ",
+            "зʼєднати точки C (-3,1) , A (%d,%d)",
+            "зʼєднати точки D (-3,1) , E (-3,-1)",
+            "поставити точку F (-3,1)");
+    // The lists share a graph until A moves; on C the first one joins two positions, a segment
+    private static final String SHARED_GRAPH = String.join(" ; ",
+            "зʼєднати точки C (-3,1) , A (%d,%d) , K (5,5)",
+            "зʼєднати точки D (-3,1) , E (-3,-1) , L (5,5)");
+
+    public static void main(String[] args) {
+        movesMatchAFreshParse(CONSTRUCTIONS, 0, 0, new int[][]{{0, 10}, {10, 0}, {-5, 3}, {0, 0}});
+        movesMatchAFreshParse(COLLAPSING, -3, -1, new int[][]{{-3, 1}, {2, 2}, {-3, 1}, {-3, -1}});
+        movesMatchAFreshParse(SHARED_SEGMENT, -3, -1, new int[][]{{-3, 1}, {0, 0}, {-3, 1}, {-3, -1}});
+        movesMatchAFreshParse(SHARED_GRAPH, -3, -1, new int[][]{{-3, 1}, {0, 0}, {5, 5}, {-3, -1}});
+        System.out.println("ConstructionGraphTest passed");
+    }
+
+    // Moves A through the given positions; after each move the scene is the one a parse at that position gives
+    private static void movesMatchAFreshParse(String script, int x, int y, int[][] moves) {
+        Parser tracked = parser(script, x, y);
+        tracked.enableDependencyTracking();
+        tracked.parse();
+        for (int[] move : moves) {
+            tracked.getConstructions().movePoint("A", move[0], move[1]);
+            Parser fresh = parser(script, move[0], move[1]);
+            fresh.parse();
+            Check.equal(shapes(fresh.getScene()), shapes(tracked.getScene()),
+                    "shapes after moving A to (" + move[0] + "," + move[1] + ") in " + script);
+            Check.equal(fresh.getScene().getAddedCount(), tracked.getScene().getAddedCount(),
+                    "references after moving A to (" + move[0] + "," + move[1] + ") in " + script);
+        }
+    }
+
+    private static Parser parser(String script, int x, int y) {
+        return new Parser(LexicalAnalyser.tokenize(String.format(script, x, y)).stream());
+    }
+
+    // Moved shapes may be stored twice, so their references are summed per shape
+    private static Map<Geometry, Integer> shapes(SceneStore scene) {
+        Map<Geometry, Integer> shapes = new HashMap<>();
+        for (int i = 0; i < scene.size(); i++) {
+            shapes.merge(scene.get(i), scene.getReferences(i), Integer::sum);
+        }
+        return shapes;
+    }
+}
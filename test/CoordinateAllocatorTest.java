@@ -0,0 +1,51 @@
+import java.util.HashSet;
+import java.util.Set;
+
+class CoordinateAllocatorTest {
+    public static void main(String[] args) {
+        keepsCellsOccupiedUntilTheLastRelease();
+        reusesFreedCells();
+        neverHandsOutCellsOutsideTheRegion();
+        System.out.println("CoordinateAllocatorTest passed");
+    }
+
+    // An allocated cell also given as an explicit point stays taken after one release
+    private static void keepsCellsOccupiedUntilTheLastRelease() {
+        CoordinateAllocator allocator = new CoordinateAllocator();
+        int[] cell = allocator.allocate();
+        allocator.markOccupied(cell[0], cell[1]);
+        allocator.release(cell[0], cell[1]);
+        Check.isTrue(allocator.isOccupied(cell[0], cell[1]), "cell freed while still used");
+        for (int i = 0; i < 200; i++) {
+            int[] other = allocator.allocate();
+            Check.isTrue(other[0] != cell[0] || other[1] != cell[1], "cell handed out twice");
+        }
+    }
+
+    private static void reusesFreedCells() {
+        CoordinateAllocator allocator = new CoordinateAllocator();
+        int[] cell = allocator.allocate();
+        allocator.markOccupied(cell[0], cell[1]);
+        allocator.release(cell[0], cell[1]);
+        allocator.release(cell[0], cell[1]);
+        Check.isTrue(!allocator.isOccupied(cell[0], cell[1]), "cell still occupied");
+        int[] again = allocator.allocate();
+        Check.equal(cell[0], again[0], "reused x");
+        Check.equal(cell[1], again[1], "reused y");
+        // Releasing a free cell does nothing
+        allocator.release(100, 100);
+        Check.isTrue(!allocator.isOccupied(100, 100), "free cell occupied");
+    }
+
+    private static void neverHandsOutCellsOutsideTheRegion() {
+        CoordinateAllocator allocator = new CoordinateAllocator();
+        allocator.markOccupied(-7, 500);
+        allocator.release(-7, 500);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 24; i++) {
+            int[] cell = allocator.allocate();
+            Check.isTrue(cell[0] >= 0 && cell[0] < 4 && cell[1] >= 0 && cell[1] < 6, "cell outside the grid");
+            Check.isTrue(seen.add(((long) cell[0] << 32) | cell[1]), "cell handed out twice");
+        }
+    }
+}
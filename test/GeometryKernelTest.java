@@ -0,0 +1,76 @@
+class GeometryKernelTest {
+    private static final double LENGTH = 20;
+
+    public static void main(String[] args) {
+        horizontalSide();
+        verticalSide();
+        zeroLengthSide();
+        batchMatchesScalar();
+        System.out.println("GeometryKernelTest passed");
+    }
+
+    private static void horizontalSide() {
+        double[] out = new double[4];
+        GeometryKernel.square(0, 0, 10, 0, out);
+        expect(out, new double[]{0, 10, 10, 10}, "square on horizontal AB");
+        GeometryKernel.perpendicular(0, 0, 10, 0, LENGTH, out);
+        expect(out, new double[]{5, 20, 5, -20}, "perpendicular to horizontal AB");
+        Check.near(0.5, GeometryKernel.projectionParameter(5, 7, 0, 0, 10, 0), "projection onto horizontal AB");
+    }
+
+    private static void verticalSide() {
+        double[] out = new double[4];
+        GeometryKernel.square(0, 0, 0, 10, out);
+        expect(out, new double[]{-10, 0, -10, 10}, "square on vertical AB");
+        GeometryKernel.perpendicular(0, 0, 0, 10, LENGTH, out);
+        expect(out, new double[]{-20, 5, 20, 5}, "perpendicular to vertical AB");
+        Check.near(0.25, GeometryKernel.projectionParameter(-3, 2.5, 0, 0, 0, 10), "projection onto vertical AB");
+    }
+
+    // A zero-length side gives its own point back, never NaN
+    private static void zeroLengthSide() {
+        double[] out = new double[4];
+        GeometryKernel.square(3, 4, 3, 4, out);
+        expect(out, new double[]{3, 4, 3, 4}, "square on zero-length AB");
+        GeometryKernel.perpendicular(3, 4, 3, 4, LENGTH, out);
+        expect(out, new double[]{3, 4, 3, 4}, "perpendicular to zero-length AB");
+        double scale = GeometryKernel.scaleTo(0, 0, LENGTH);
+        Check.isTrue(Double.isFinite(scale), "scale of a zero vector is finite");
+        Check.near(0, 0 * scale, "zero vector scaled");
+        Check.near(0, GeometryKernel.projectionParameter(8, 9, 3, 4, 3, 4), "projection onto zero-length AB");
+        Check.equal(0, GeometryKernel.toGrid(Double.NaN), "NaN on the grid");
+    }
+
+    private static void batchMatchesScalar() {
+        double[] ax = {0, 0, 3, -7};
+        double[] ay = {0, 0, 4, 2};
+        double[] bx = {10, 0, 3, 5};
+        double[] by = {0, 10, 4, -9};
+        int n = ax.length;
+        double[] cx = new double[n], cy = new double[n], dx = new double[n], dy = new double[n];
+        double[] out = new double[4];
+
+        GeometryKernel.squares(ax, ay, bx, by, cx, cy, dx, dy, n);
+        for (int i = 0; i < n; i++) {
+            GeometryKernel.square(ax[i], ay[i], bx[i], by[i], out);
+            expect(new double[]{cx[i], cy[i], dx[i], dy[i]}, out, "batch square " + i);
+        }
+        GeometryKernel.perpendiculars(ax, ay, bx, by, LENGTH, cx, cy, dx, dy, n);
+        for (int i = 0; i < n; i++) {
+            GeometryKernel.perpendicular(ax[i], ay[i], bx[i], by[i], LENGTH, out);
+            expect(new double[]{cx[i], cy[i], dx[i], dy[i]}, out, "batch perpendicular " + i);
+        }
+        GeometryKernel.midpoints(ax, ay, bx, by, cx, cy, n);
+        for (int i = 0; i < n; i++) {
+            Check.near(GeometryKernel.midpoint(ax[i], bx[i]), cx[i], "batch midpoint x " + i);
+            Check.near(GeometryKernel.midpoint(ay[i], by[i]), cy[i], "batch midpoint y " + i);
+        }
+    }
+
+    private static void expect(double[] actual, double[] expected, String message) {
+        for (int i = 0; i < expected.length; i++) {
+            Check.isTrue(!Double.isNaN(actual[i]), message + ": NaN at " + i);
+            Check.near(expected[i], actual[i], message + " [" + i + "]");
+        }
+    }
+}
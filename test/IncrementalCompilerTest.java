@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class IncrementalCompilerTest {
+    // Fixed points, so no statement after them needs the allocator
+    private static final String PREFIX = "поставити точку A (0,0) ; поставити точку B (5,0) ; поставити точку C (0,5) ; ";
+    private static final String[] STATEMENTS = {
+            "поставити точку A (%d,%d)",
+            "поставити точку B (%d,%d)",
+            "провести відрізок через дві точки A та B",
+            "провести відрізок через дві точки B та C",
+            "провести пряму , перпендикулярну до відрізка AB",
+            "побудувати квадрат зі стороною AB",
+            "побудувати трикутник за точками A , B , C",
+            "зʼєднати точки A (%d,%d) , C (%d,%d) , D (1,1)",
+            "поставити точку E (%d,%d)",
+            "провести пряму , перпендикулярну до відрізка BC",
+            "провести пряму , перпендикулярну до відрізка AC",
+            "поставити точку E (99999999999,1)",
+            "поставити точку E (1,1) F",
+    };
+
+    public static void main(String[] args) {
+        keepsTheSceneMergedAcrossEdits();
+        releasesCellsOfEvictedStatements();
+        recompilesOnlyWhatAnEditReaches();
+        rechecksLinesOfRemovedGraphs();
+        insertsManyStatementsAtOnePlace();
+        System.out.println("IncrementalCompilerTest passed");
+    }
+
+    // After every edit, insert and delete the scene, the program and the diagnostics
+    // are what a compile of the whole text gives
+    private static void keepsTheSceneMergedAcrossEdits() {
+        Random random = new Random(17);
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < 30; i++) statements.add(statement(random));
+        compiler.update(text(statements));
+        for (int round = 0; round < 400; round++) {
+            int k = random.nextInt(statements.size());
+            int start = offset(statements, k);
+            int end = start + statements.get(k).length();
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    String replacement = statement(random);
+                    statements.set(k, replacement);
+                    compiler.edit(start, end, replacement);
+                }
+                case 1 -> {
+                    String inserted = statement(random);
+                    statements.add(k, inserted);
+                    compiler.edit(start, start, inserted + " ; ");
+                }
+                default -> {
+                    if (statements.size() == 1) continue;
+                    statements.remove(k);
+                    compiler.edit(start, end + 3, "");
+                }
+            }
+            IncrementalCompiler fresh = new IncrementalCompiler();
+            fresh.update(text(statements));
+            Check.equal(shapes(fresh.getScene()), shapes(compiler.getScene()), "shapes after edit " + round);
+            Check.equal(fresh.getScene().getAddedCount(), compiler.getScene().getAddedCount(), "added after edit " + round);
+
+            Parser parser = new Parser(LexicalAnalyser.tokenize(text(statements)).stream());
+            parser.enableSemanticChecks();
+            parser.enableErrorRecovery();
+            ProgramNode program = parser.parse();
+            Check.equal(describe(parser.getDiagnostics()), describe(compiler.getDiagnostics()), "diagnostics after edit " + round);
+            Check.equal(types(program), types(compiler.getProgram()), "program after edit " + round);
+        }
+    }
+
+    // Renaming one of many allocated points over and over keeps the allocator's region small,
+    // because evicted compiles give their cells back
+    private static void releasesCellsOfEvictedStatements() {
+        CoordinateAllocator allocator = new CoordinateAllocator();
+        IncrementalCompiler compiler = new IncrementalCompiler(allocator);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) text.append("поставити точку P").append(i).append(" ; ");
+        int start = text.indexOf("P7 ");
+        compiler.update(text.toString());
+        String name = "P7";
+        for (int round = 0; round < 3000; round++) {
+            String renamed = "Q" + round;
+            compiler.edit(start, start + name.length(), renamed);
+            name = renamed;
+            Check.equal(1, compiler.getRecompiledStatements(), "recompiled after rename " + round);
+        }
+        Check.equal(List.of(), compiler.getDiagnostics(), "diagnostics");
+        SceneStore scene = compiler.getScene();
+        Check.equal(50, scene.size(), "points");
+        for (int i = 0; i < scene.size(); i++) {
+            Check.isTrue(scene.x1(i) < 16 && scene.y1(i) < 24, "point " + scene.getName(i) + " outside the region");
+        }
+    }
+
+    // Moving a point only reaches the statements that read it, up to its next definition
+    private static void recompilesOnlyWhatAnEditReaches() {
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            statements.add(i % 500 == 0 ? "зʼєднати точки A (" + i + ",0) , C (0,5)" : "провести відрізок через дві точки A та B");
+        }
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        compiler.update(text(statements));
+        int start = offset(statements, 500) + "зʼєднати точки A (".length();
+        compiler.edit(start, start + 3, "501");
+        // The edited statement, and the segment statement in each of its neighbours' texts
+        Check.isTrue(compiler.getRecompiledStatements() <= 3, compiler.getRecompiledStatements() + " statements recompiled");
+        Check.equal(499, compiler.getScene().getReferences(new SegmentGeometry(501, 0, 5, 0)), "segments from the moved point");
+        Check.equal(List.of(), compiler.getDiagnostics(), "diagnostics");
+    }
+
+    // The perpendicular reads A and C after their last definitions, so only the list joining them reaches it
+    private static void rechecksLinesOfRemovedGraphs() {
+        String joined = "зʼєднати точки A (0,0) , C (0,5) ; ";
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        compiler.update(joined + "поставити точку G (3,3) ; поставити точку H (4,4) ; поставити точку A (0,0) ; "
+                + "зʼєднати точки C (0,5) , E (1,1) ; провести пряму , перпендикулярну до відрізка AC");
+        Check.equal(List.of(), compiler.getDiagnostics(), "diagnostics with the list");
+        compiler.edit(0, joined.length(), "");
+        Check.equal(List.of("statement 5: Semantic Error: Line AC is not defined for perpendicular line."),
+                describe(compiler.getDiagnostics()), "diagnostics without the list");
+        compiler.edit(0, 0, joined);
+        Check.equal(List.of(), compiler.getDiagnostics(), "diagnostics with the list again");
+    }
+
+    // Each insert halves the room between two order keys, until the statements are spaced out again
+    private static void insertsManyStatementsAtOnePlace() {
+        List<String> statements = new ArrayList<>(List.of("поставити точку E (0,0)", "поставити точку F (0,1)"));
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        compiler.update(text(statements));
+        for (int i = 0; i < 60; i++) {
+            String inserted = i % 2 == 0 ? "поставити точку E (" + i + ",2)" : "поставити точку F (" + i + ",3)";
+            int start = offset(statements, 1);
+            statements.add(1, inserted);
+            compiler.edit(start, start, inserted + " ; ");
+            start = offset(statements, 2);
+            statements.add(2, "провести відрізок через дві точки E та F");
+            compiler.edit(start, start, "провести відрізок через дві точки E та F ; ");
+        }
+        Parser parser = new Parser(LexicalAnalyser.tokenize(text(statements)).stream());
+        parser.enableSemanticChecks();
+        parser.enableErrorRecovery();
+        parser.parse();
+        Check.equal(describe(parser.getDiagnostics()), describe(compiler.getDiagnostics()), "diagnostics");
+        Check.equal(shapes(parser.getScene()), shapes(compiler.getScene()), "shapes");
+    }
+
+    private static List<String> describe(List<Diagnostic> diagnostics) {
+        List<String> described = new ArrayList<>();
+        for (Diagnostic diagnostic : diagnostics) described.add(diagnostic.toString());
+        return described;
+    }
+
+    private static List<String> types(ProgramNode program) {
+        List<String> types = new ArrayList<>();
+        for (Node operation : program.getOperations()) types.add(operation.getType());
+        return types;
+    }
+
+    private static String text(List<String> statements) {
+        return PREFIX + String.join(" ; ", statements) + " ; ";
+    }
+
+    // Where statement k starts in text(statements)
+    private static int offset(List<String> statements, int k) {
+        int offset = PREFIX.length();
+        for (int i = 0; i < k; i++) offset += statements.get(i).length() + 3;
+        return offset;
+    }
+
+    private static String statement(Random random) {
+        String statement = STATEMENTS[random.nextInt(STATEMENTS.length)];
+        return String.format(statement, random.nextInt(5), random.nextInt(5), random.nextInt(5), random.nextInt(5));
+    }
+
+    private static Map<Geometry, Integer> shapes(SceneStore scene) {
+        Map<Geometry, Integer> shapes = new HashMap<>();
+        for (int i = 0; i < scene.size(); i++) {
+            shapes.merge(scene.get(i), scene.getReferences(i), Integer::sum);
+        }
+        return shapes;
+    }
+}
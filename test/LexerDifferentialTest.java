@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// The scanning lexer must produce exactly the regex cascade's lexemes, errors included
+class LexerDifferentialTest {
+    // The sample scripts of Main
+    private static final String[] SAMPLES = {
+            "поставити точку A ",
+            "поставити точку A ; поставити точку B  ; поставити точку C (0,5) ; поставити точку D (5,0)",
+            "поставити точку A (3,1) ; провести відрізок через дві точки C (1,2) та B",
+            "провести відрізок через дві точки C (-5,5) та B (5,-5) ; провести відрізок через дві точки A та M",
+            "провести відрізок через дві точки C (-5,5) та B (5,-5) ; провести пряму , перпендикулярну до відрізка CB",
+            "поставити точку M (1,2) ; поставити точку B (1,6) ; провести відрізок через дві точки M та B",
+            "поставити точку A (1,2) ; поставити точку B (1,6) ; провести відрізок через дві точки A та B ; провести пряму , перпендикулярну до відрізка AB",
+            "зʼєднати точки A (1,1) , B (-5,6) , C (9,2) , D (-2,2) ",
+            "побудувати трикутник за точками A (-4,0) , B (4,0) , C (0,5)",
+            "побудувати трикутник за точками A , B , C ",
+            "поставити точку A ; поставити точку B ; провести відрізок через дві точки A та B ; побудувати квадрат зі стороною AB",
+            "провести відрізок через дві точки A та B ; побудувати квадрат зі стороною AB",
+            "побудувати квадрат зі стороною AB",
+    };
+
+    // Malformed or borderline words next to valid ones
+    private static final String[] WORDS = {
+            "поставити", "провести", "побудувати", "зʼєднати", "точку", "точки", "точками", "відрізок", "відрізка",
+            "пряму", "перпендикулярну", "трикутник", "квадрат", "стороною", "через", "дві", "та", "до", "за", "зі",
+            ",", ";", "A", "B", "AB", "A1", "a", "ab_c", "Ж", "(1,2)", "(-3,-4)", "(1.5,2)", "(1,2.25)", "(1.,2)",
+            "(1,", "(,)", "()", "(", ")", "(1;2)", "(99999999999,1)", "(--1,2)", "( 1,2)", "12", "-7", "3.14", "1e5",
+            "if", "while", "return", "String", "+", "=", "==", "{", "}", "ʼ", "точ", "точкою", "поставитиx", "X;",
+            ";;", ",,", "§", " ", "🙂", "Поставити", "ТОЧКУ",
+    };
+
+    private static final String[] SEPARATORS = {" ", "  ", "\t", "\n", " \r\n "};
+
+    public static void main(String[] args) {
+        for (String sample : SAMPLES) {
+            compare(sample);
+        }
+        compare("");
+        compare("   ");
+        compare(" поставити точку A");
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            compare(generate(random));
+        }
+        System.out.println("LexerDifferentialTest passed");
+    }
+
+    private static String generate(Random random) {
+        StringBuilder text = new StringBuilder();
+        if (random.nextInt(4) == 0) text.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        int words = random.nextInt(30);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            if (random.nextInt(10) == 0) {
+                // Two words glued together
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static void compare(String text) {
+        Check.equal(describe(LexicalAnalyser.analyseRegex(text)), describe(LexicalAnalyser.analyseScan(text)),
+                "lexemes of \"" + text + "\"");
+    }
+
+    private static List<String> describe(List<Lexeme> lexemes) {
+        List<String> described = new ArrayList<>(lexemes.size());
+        for (Lexeme lexeme : lexemes) {
+            described.add(lexeme.getType() + ": " + lexeme.getLexeme());
+        }
+        return described;
+    }
+}
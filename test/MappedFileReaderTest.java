@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedFileReaderTest {
+    public static void main(String[] args) throws IOException {
+        readsPastEndTwice("точка A (1,2);");
+        readsPastEndTwice("");
+        System.out.println("MappedFileReaderTest passed");
+    }
+
+    private static void readsPastEndTwice(String text) throws IOException {
+        Path file = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.writeString(file, text, StandardCharsets.UTF_8);
+            try (MappedFileReader reader = new MappedFileReader(FileChannel.open(file, StandardOpenOption.READ))) {
+                StringBuilder read = new StringBuilder();
+                char[] buffer = new char[4];
+                int n;
+                while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                    read.append(buffer, 0, n);
+                }
+                Check.equal(text, read.toString(), "text read");
+                Check.equal(-1, reader.read(buffer, 0, buffer.length), "second read past the end");
+                Check.equal(-1, reader.read(), "single-char read past the end");
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.List;
+
+class ParserRecoveryTest {
+    public static void main(String[] args) {
+        reportsEveryError();
+        throwsWithoutRecovery();
+        System.out.println("ParserRecoveryTest passed");
+    }
+
+    // Bad coordinates are reported with the other syntax errors, each in its own statement
+    private static void reportsEveryError() {
+        Parser parser = parser(String.join(" ; ",
+                "поставити точку A (1,1)",
+                "поставити точку B (1.5,2)",
+                "стерти все",
+                "провести відрізок через дві точки C (99999999999,1) та D",
+                "зʼєднати точки E (0,0) , F (0.5,1)",
+                "провести відрізок через дві точки A B",
+                "поставити точку G (3,3)"));
+        parser.enableErrorRecovery();
+        List<Node> operations = parser.parse().getOperations();
+
+        List<Diagnostic> diagnostics = parser.getDiagnostics();
+        Check.equal(5, diagnostics.size(), "errors reported: " + diagnostics);
+        expect(diagnostics.get(0), Diagnostic.Kind.BAD_COORDINATES, 1, "(1.5,2)");
+        expect(diagnostics.get(1), Diagnostic.Kind.UNKNOWN_OPERATION, 2, "стерти");
+        expect(diagnostics.get(2), Diagnostic.Kind.BAD_COORDINATES, 3, "(99999999999,1)");
+        expect(diagnostics.get(3), Diagnostic.Kind.BAD_COORDINATES, 4, "(0.5,1)");
+        expect(diagnostics.get(4), Diagnostic.Kind.UNEXPECTED_TOKEN, 5, "B");
+        Check.equal(2, operations.size(), "statements kept");
+    }
+
+    private static void throwsWithoutRecovery() {
+        try {
+            parser("поставити точку B (1.5,2)").parse();
+            throw new AssertionError("fractional coordinates parsed");
+        } catch (RuntimeException e) {
+            Check.isTrue(e.getMessage().contains("(1.5,2)"), "error names the coordinates: " + e.getMessage());
+        }
+    }
+
+    private static Parser parser(String text) {
+        return new Parser(LexicalAnalyser.tokenize(text).stream());
+    }
+
+    private static void expect(Diagnostic diagnostic, Diagnostic.Kind kind, int statement, String subject) {
+        Check.equal(kind, diagnostic.getKind(), diagnostic.getMessage());
+        Check.equal(statement, diagnostic.getStatement(), "statement of " + diagnostic.getMessage());
+        Check.equal(subject, diagnostic.getSubject(), "subject of " + diagnostic.getMessage());
+    }
+}
@@ -0,0 +1,27 @@
+class PointRefTest {
+    public static void main(String[] args) {
+        parsesCoordinates();
+        parsesIntLimits();
+        rejects("(99999999999,1)");
+        rejects("(1,2147483648)");
+        rejects("(-2147483649,0)");
+        rejects("(1.5,2)");
+        System.out.println("PointRefTest passed");
+    }
+
+    private static void parsesCoordinates() {
+        int[] xy = PointRef.parseCoordinates("(3,-4)");
+        Check.equal(3, xy[0], "x");
+        Check.equal(-4, xy[1], "y");
+    }
+
+    private static void parsesIntLimits() {
+        int[] xy = PointRef.parseCoordinates("(2147483647,-2147483648)");
+        Check.equal(Integer.MAX_VALUE, xy[0], "largest x");
+        Check.equal(Integer.MIN_VALUE, xy[1], "smallest y");
+    }
+
+    private static void rejects(String coordinates) {
+        Check.isTrue(PointRef.parseCoordinates(coordinates) == null, coordinates + " parsed");
+    }
+}
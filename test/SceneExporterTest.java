@@ -0,0 +1,38 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+class SceneExporterTest {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        tilesMatchOneImage();
+        System.out.println("SceneExporterTest passed");
+    }
+
+    // Over a thousand segments crossing each other, so every tile draws parts of several paths
+    private static void tilesMatchOneImage() throws Exception {
+        Random random = new Random(14);
+        SceneStore scene = new SceneStore();
+        for (int i = 0; i < 1200; i++) {
+            scene.addSegment(random.nextInt(41) - 20, random.nextInt(31) - 15, random.nextInt(41) - 20, random.nextInt(31) - 15);
+        }
+        for (int i = 0; i < 40; i++) {
+            scene.addPoint("P" + i, random.nextInt(41) - 20, random.nextInt(31) - 15);
+        }
+        scene.addGraph(new CompleteGraphGeometry(new int[]{-9, -3, 4, 8, 2, -6}, new int[]{-5, 7, 6, -2, -8, 0}));
+
+        SceneExporter exporter = new SceneExporter(scene, 1);
+        BufferedImage whole = exporter.rasterize(1 << 16, 1);
+        for (int tileSize : new int[]{64, 100, 257}) {
+            BufferedImage tiled = exporter.rasterize(tileSize, 2);
+            Check.equal(whole.getWidth(), tiled.getWidth(), "width");
+            Check.equal(whole.getHeight(), tiled.getHeight(), "height");
+            int different = 0;
+            for (int y = 0; y < whole.getHeight(); y++) {
+                for (int x = 0; x < whole.getWidth(); x++) {
+                    if (whole.getRGB(x, y) != tiled.getRGB(x, y)) different++;
+                }
+            }
+            Check.equal(0, different, "pixels differing with " + tileSize + " px tiles");
+        }
+    }
+}